@@ -0,0 +1,433 @@
+package com.example.effectivejava.ch11concurrency.i79avoidexcessivesync;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.example.effectivejava.ch11concurrency.i79avoidexcessivesync.collection.ForwardingSet;
+
+/**
+ * <p>
+ * 异步通知观察者的ObservableSet。
+ *
+ * <p>
+ * {@link ObservableSet}虽然把外来方法的调用移到了同步区域之外，但观察者仍然是在执行add的线程中被同步调用的，
+ * 一个处理缓慢的观察者会拖慢所有的写线程。
+ *
+ * <p>
+ * 本类为每个观察者维护一个有界的环形缓冲区，add只是把事件放进缓冲区，由executor中的线程把积压的事件
+ * 成批地（{@link SetObserver#added(AsyncObservableSet, List)}）交给观察者，写线程不再执行任何外来方法。
+ * 每个观察者有自己的缓冲区，慢的观察者只会让自己的事件积压，不影响其他观察者。
+ *
+ * <p>
+ * 缓冲区满时的处理方式由{@link Backpressure}决定。缓冲区只在入队和出队时短暂加锁，锁内不调用任何外来方法。
+ * 同一个观察者的事件按顺序投递，同一时间最多只有一个线程在调用它。
+ */
+public class AsyncObservableSet<E> extends ForwardingSet<E> {
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private final Set<E> s;
+    private final Executor executor;
+    private final int capacity;
+    private final Backpressure backpressure;
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    /**
+     * 缓冲区满时的处理方式
+     */
+    public enum Backpressure {
+        /**
+         * 写线程阻塞，直到缓冲区有空位。
+         * 注意不要在观察者中向同一个集合添加元素，否则投递线程会等待自己腾出空位，造成死锁。
+         */
+        BLOCK,
+        /**
+         * 丢弃最旧的事件，写线程从不阻塞
+         */
+        DROP_OLDEST,
+        /**
+         * 合并重复的事件：元素已经在缓冲区中等待投递时不再重复入队（比如元素被删除后又被添加），
+         * 缓冲区仍然满时阻塞写线程
+         */
+        COALESCE
+    }
+
+    @FunctionalInterface
+    public interface SetObserver<E> {
+
+        void added(AsyncObservableSet<E> set, List<E> elements);
+
+    }
+
+    public static <E> AsyncObservableSet<E> of(Set<E> s, Executor executor) {
+        return of(s, executor, DEFAULT_CAPACITY, Backpressure.BLOCK);
+    }
+
+    public static <E> AsyncObservableSet<E> of(Set<E> s, Executor executor, int capacity, Backpressure backpressure) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        return new AsyncObservableSet<>(s, executor, capacity, backpressure);
+    }
+
+    private AsyncObservableSet(Set<E> s, Executor executor, int capacity, Backpressure backpressure) {
+        this.s = Objects.requireNonNull(s);
+        this.executor = Objects.requireNonNull(executor);
+        this.capacity = capacity;
+        this.backpressure = Objects.requireNonNull(backpressure);
+    }
+
+    @Override
+    protected Set<E> decorated() {
+        return s;
+    }
+
+    public boolean addObserver(SetObserver<E> ob) {
+        return subscriptions.add(new Subscription(Objects.requireNonNull(ob)));
+    }
+
+    /**
+     * 移除后还在缓冲区中的事件不再投递
+     */
+    public boolean removeObserver(SetObserver<E> ob) {
+        for (Subscription sub : subscriptions) {
+            if (sub.observer.equals(ob) && subscriptions.remove(sub)) {
+                sub.cancel();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return 观察者的投递统计，观察者不存在时返回null
+     */
+    public ObserverStats stats(SetObserver<E> ob) {
+        for (Subscription sub : subscriptions) {
+            if (sub.observer.equals(ob)) {
+                return sub.stats();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean add(E e) {
+        boolean added = super.add(e);
+        if (added) {
+            for (Subscription sub : subscriptions) {
+                sub.offer(e);
+            }
+        }
+        return added;
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends E> c) {
+        boolean result = false;
+        for (E e : c) {
+            result |= add(e);
+        }
+        return result;
+    }
+
+    /**
+     * 某个观察者的投递统计快照
+     */
+    public static final class ObserverStats {
+        private final long enqueued;
+        private final long delivered;
+        private final long dropped;
+        private final long coalesced;
+        private final long failures;
+
+        ObserverStats(long enqueued, long delivered, long dropped, long coalesced, long failures) {
+            this.enqueued = enqueued;
+            this.delivered = delivered;
+            this.dropped = dropped;
+            this.coalesced = coalesced;
+            this.failures = failures;
+        }
+
+        public long enqueued() {
+            return enqueued;
+        }
+
+        public long delivered() {
+            return delivered;
+        }
+
+        public long dropped() {
+            return dropped;
+        }
+
+        public long coalesced() {
+            return coalesced;
+        }
+
+        /**
+         * @return 观察者抛出异常的批次数，这些批次中的事件仍然计入已投递
+         */
+        public long failures() {
+            return failures;
+        }
+
+        /**
+         * @return 已经入队但还没有投递的事件数量，
+         * 观察者移除后没有投递的事件计入{@link #dropped()}
+         */
+        public long lag() {
+            return enqueued - delivered - dropped;
+        }
+
+        @Override
+        public String toString() {
+            return "ObserverStats[enqueued=" + enqueued + ", delivered=" + delivered + ", dropped=" + dropped
+                    + ", coalesced=" + coalesced + ", failures=" + failures + ", lag=" + lag() + "]";
+        }
+    }
+
+    /**
+     * 一个观察者的环形缓冲区和投递状态。
+     * 多个写线程入队，同一时间只有一个投递任务出队（多生产者单消费者）。
+     */
+    private final class Subscription {
+        private final SetObserver<E> observer;
+        private final Object[] ring = new Object[capacity];
+        private final HashSet<Object> pending = backpressure == Backpressure.COALESCE ? new HashSet<>() : null;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notFull = lock.newCondition();
+        /**
+         * 是否已经有投递任务提交到executor，保证同一个观察者不会被并发调用
+         */
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile boolean cancelled;
+
+        private int head;
+        private int count;
+        private long enqueued;
+        private long delivered;
+        private long dropped;
+        private long coalesced;
+        private long failures;
+
+        Subscription(SetObserver<E> observer) {
+            this.observer = observer;
+        }
+
+        void offer(E e) {
+            lock.lock();
+            try {
+                if (pending != null && !pending.add(e)) {
+                    coalesced++;
+                    return;
+                }
+                if (count == ring.length) {
+                    if (backpressure == Backpressure.DROP_OLDEST) {
+                        Object oldest = ring[head];
+                        ring[head] = null;
+                        head = (head + 1) % ring.length;
+                        count--;
+                        dropped++;
+                        if (pending != null) {
+                            pending.remove(oldest);
+                        }
+                    } else {
+                        while (count == ring.length && !cancelled) {
+                            notFull.awaitUninterruptibly();
+                        }
+                        if (cancelled) {
+                            return;
+                        }
+                    }
+                }
+                ring[(head + count) % ring.length] = e;
+                count++;
+                enqueued++;
+            } finally {
+                lock.unlock();
+            }
+            schedule();
+        }
+
+        /**
+         * 唤醒阻塞在这个观察者上的写线程
+         */
+        void cancel() {
+            lock.lock();
+            try {
+                cancelled = true;
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * executor拒绝任务时要清除标记，否则之后的事件都以为已经有投递任务，这个观察者再也收不到通知
+         */
+        private void schedule() {
+            if (!cancelled && scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this::drain);
+                } catch (RejectedExecutionException ex) {
+                    scheduled.set(false);
+                    throw ex;
+                }
+            }
+        }
+
+        /**
+         * 观察者抛出Error时投递任务异常退出，这时scheduled还是true，之后schedule()不会再提交任务，
+         * 观察者就再也收不到事件了。所以异常退出时也要清除标记，还有积压的事件时重新提交投递任务。
+         * Error本身继续抛出，交给executor所在线程处理。
+         */
+        private void drain() {
+            boolean completed = false;
+            try {
+                drainLoop();
+                completed = true;
+            } finally {
+                if (!completed) {
+                    scheduled.set(false);
+                    if (!isEmpty()) {
+                        try {
+                            schedule();
+                        } catch (RejectedExecutionException ex) {
+                            // 不掩盖原来的Error，标记已经清除，下一次入队时会再次提交
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * 取出积压的事件，在锁外调用观察者（开放调用）
+         */
+        private void drainLoop() {
+            for (;;) {
+                List<E> batch = poll();
+                if (batch.isEmpty()) {
+                    scheduled.set(false);
+                    // 清除标记前可能有新的事件入队，而入队的线程看到标记还在，没有提交新任务
+                    if (isEmpty() || !scheduled.compareAndSet(false, true)) {
+                        return;
+                    }
+                    continue;
+                }
+                if (cancelled) {
+                    // 观察者已经移除，剩余的事件不再投递，计入丢弃的数量
+                    lock.lock();
+                    try {
+                        dropped += batch.size();
+                    } finally {
+                        lock.unlock();
+                    }
+                    continue;
+                }
+                RuntimeException failure = null;
+                boolean failed = true;
+                try {
+                    observer.added(AsyncObservableSet.this, batch);
+                    failed = false;
+                } catch (RuntimeException ex) {
+                    failure = ex;
+                } finally {
+                    // 抛出Error时这一批也已经交给了观察者，同样计入
+                    lock.lock();
+                    try {
+                        delivered += batch.size();
+                        if (failed) {
+                            failures++;
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+                if (failure != null) {
+                    // 交给投递线程的UncaughtExceptionHandler处理，之后继续投递其余的事件
+                    Thread current = Thread.currentThread();
+                    current.getUncaughtExceptionHandler().uncaughtException(current, failure);
+                }
+            }
+        }
+
+        private List<E> poll() {
+            lock.lock();
+            try {
+                List<E> batch = new ArrayList<>(count);
+                for (; count > 0; count--) {
+                    @SuppressWarnings("unchecked")
+                    E e = (E) ring[head];
+                    ring[head] = null;
+                    head = (head + 1) % ring.length;
+                    batch.add(e);
+                }
+                if (pending != null) {
+                    pending.clear();
+                }
+                notFull.signalAll();
+                return batch;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private boolean isEmpty() {
+            lock.lock();
+            try {
+                return count == 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        ObserverStats stats() {
+            lock.lock();
+            try {
+                return new ObserverStats(enqueued, delivered, dropped, coalesced, failures);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        // 每个观察者的投递任务会占用一个线程直到缓冲区清空，线程数不少于观察者数才不会相互影响
+        ExecutorService exec = Executors.newFixedThreadPool(2);
+        AsyncObservableSet<Integer> set = AsyncObservableSet.of(new HashSet<>(), exec, 64, Backpressure.DROP_OLDEST);
+
+        SetObserver<Integer> slow = (s, elements) -> {
+            try {
+                Thread.sleep(1); // 模拟处理缓慢的观察者
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        SetObserver<Integer> fast = (s, elements) -> System.out.println("batch of " + elements.size());
+        set.addObserver(slow);
+        set.addObserver(fast);
+
+        for (int i = 0; i < 1000; i++) {
+            set.add(i);
+        }
+
+        exec.shutdown();
+        exec.awaitTermination(10, TimeUnit.SECONDS);
+        System.out.println("slow: " + set.stats(slow));
+        System.out.println("fast: " + set.stats(fast));
+    }
+
+}
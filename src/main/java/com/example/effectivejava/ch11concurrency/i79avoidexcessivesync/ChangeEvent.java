@@ -0,0 +1,41 @@
+package com.example.effectivejava.ch11concurrency.i79avoidexcessivesync;
+
+/**
+ * {@link ObservableSet}的一次修改，序号在同一个集合中从0开始连续递增。
+ * CLEAR事件没有元素。
+ */
+public final class ChangeEvent<E> {
+    private final long seq;
+    private final Type type;
+    private final E element;
+
+    public enum Type {
+        ADD, REMOVE, CLEAR
+    }
+
+    ChangeEvent(long seq, Type type, E element) {
+        this.seq = seq;
+        this.type = type;
+        this.element = element;
+    }
+
+    public long seq() {
+        return seq;
+    }
+
+    public Type type() {
+        return type;
+    }
+
+    /**
+     * @return 添加或移除的元素，CLEAR事件返回null
+     */
+    public E element() {
+        return element;
+    }
+
+    @Override
+    public String toString() {
+        return type == Type.CLEAR ? "#" + seq + " CLEAR" : "#" + seq + " " + type + " " + element;
+    }
+}
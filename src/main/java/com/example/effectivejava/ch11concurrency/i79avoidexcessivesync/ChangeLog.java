@@ -0,0 +1,121 @@
+package com.example.effectivejava.ch11concurrency.i79avoidexcessivesync;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ * {@link ObservableSet}的修改日志，只追加，保留最近的capacity条事件。
+ *
+ * <p>
+ * 观察者处理不过来或者中途才开始订阅时，不需要重新读取整个集合，
+ * 只要记住自己处理到的序号，调用{@link #replay(long, Consumer)}补上之后的事件即可。
+ * 需要的事件已经被淘汰时抛出IllegalStateException，这时只能重新读取整个集合，再从{@link #nextSeq()}开始跟踪。
+ *
+ * <p>
+ * 本类是线程安全的。replay在锁内拷贝事件，在锁外调用consumer（开放调用）。
+ */
+public final class ChangeLog<E> {
+    private final ChangeEvent<?>[] events;
+    private long nextSeq;
+
+    ChangeLog(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.events = new ChangeEvent<?>[capacity];
+    }
+
+    synchronized ChangeEvent<E> append(ChangeEvent.Type type, E element) {
+        ChangeEvent<E> event = new ChangeEvent<>(nextSeq, type, element);
+        events[(int) (nextSeq % events.length)] = event;
+        nextSeq++;
+        return event;
+    }
+
+    /**
+     * @return 最早的仍然保留的事件序号
+     */
+    public synchronized long firstSeq() {
+        return Math.max(0, nextSeq - events.length);
+    }
+
+    /**
+     * @return 下一个事件的序号
+     */
+    public synchronized long nextSeq() {
+        return nextSeq;
+    }
+
+    /**
+     * 按顺序重放序号不小于fromSeq的事件
+     *
+     * @return 重放之后下一次应该使用的fromSeq
+     * @throws IllegalStateException fromSeq之后的事件已经有一部分被淘汰
+     */
+    public long replay(long fromSeq, Consumer<? super ChangeEvent<E>> consumer) {
+        List<ChangeEvent<E>> pending = new ArrayList<>();
+        synchronized (this) {
+            if (fromSeq > nextSeq || fromSeq < 0) {
+                throw new IllegalArgumentException("Invalid sequence: " + fromSeq + ", next is " + nextSeq);
+            }
+            long first = firstSeq();
+            if (fromSeq < first) {
+                throw new IllegalStateException("Sequence " + fromSeq + " already truncated, first retained is " + first);
+            }
+            for (long seq = fromSeq; seq < nextSeq; seq++) {
+                @SuppressWarnings("unchecked")
+                ChangeEvent<E> event = (ChangeEvent<E>) events[(int) (seq % events.length)];
+                pending.add(event);
+            }
+        }
+        for (ChangeEvent<E> event : pending) {
+            consumer.accept(event);
+        }
+        return fromSeq + pending.size();
+    }
+
+    public static void main(String[] args) {
+        ObservableSet<Integer> set = ObservableSet.of(new HashSet<>(), 16);
+        ChangeLog<Integer> log = set.changeLog().orElseThrow();
+
+        // 下游缓存先读取一次全量数据，记住当时的序号
+        Set<Integer> cache = new HashSet<>(set);
+        long offset = log.nextSeq();
+
+        for (int i = 0; i < 10; i++) {
+            set.add(i);
+        }
+        set.removeIf(i -> i % 3 == 0);
+        set.retainAll(Set.of(1, 2, 4, 5, 100));
+
+        // 增量追上集合的修改
+        offset = log.replay(offset, event -> {
+            switch (event.type()) {
+            case ADD:
+                cache.add(event.element());
+                break;
+            case REMOVE:
+                cache.remove(event.element());
+                break;
+            case CLEAR:
+                cache.clear();
+                break;
+            }
+        });
+        System.out.println(cache + " == " + set + ", next offset " + offset);
+
+        for (int i = 0; i < 100; i++) {
+            set.add(i);
+        }
+        try {
+            log.replay(offset, event -> {
+            });
+        } catch (IllegalStateException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+}
@@ -2,8 +2,11 @@ package com.example.effectivejava.ch11concurrency.i79avoidexcessivesync;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -41,13 +44,29 @@ public class ObservableSet<E> extends ForwardingSet<E> {
 
     private final Set<E> s;
     private final List<SetObserver<E>> obs = new ArrayList<>();
+    /**
+     * 没有开启修改日志时为null
+     */
+    private final ChangeLog<E> log;
 
     public static <E> ObservableSet<E> of(Set<E> s) {
-        return new ObservableSet<>(s);
+        return new ObservableSet<>(s, null);
     }
 
-    private ObservableSet(Set<E> s) {
+    /**
+     * 同时记录修改日志，保留最近logCapacity条事件
+     */
+    public static <E> ObservableSet<E> of(Set<E> s, int logCapacity) {
+        return new ObservableSet<>(s, new ChangeLog<>(logCapacity));
+    }
+
+    private ObservableSet(Set<E> s, ChangeLog<E> log) {
         this.s = s;
+        this.log = log;
+    }
+
+    public Optional<ChangeLog<E>> changeLog() {
+        return Optional.ofNullable(log);
     }
 
     @Override
@@ -67,25 +86,81 @@ public class ObservableSet<E> extends ForwardingSet<E> {
         }
     }
 
-    private void notifyElementAdded(E e) {
+    private List<SetObserver<E>> snapshot() {
         // 安全性拷贝，防止遍历过程中原始列表被修改造成错误
-        List<SetObserver<E>> snapshot = null;
         synchronized (obs) {
-            snapshot = new ArrayList<>(obs);
+            return new ArrayList<>(obs);
         }
+    }
 
+    private void notifyElementAdded(E e) {
+        record(ChangeEvent.Type.ADD, e);
         // 外部方法的调用移到同步区域之外，防止死锁
         // 这样没有锁也可以安全地遍历列表了，并且可以避免异常和死锁
-        for (SetObserver<E> ob : snapshot) {
+        for (SetObserver<E> ob : snapshot()) {
             ob.added(this, e);
         }
     }
 
+    private void notifyElementRemoved(E e) {
+        record(ChangeEvent.Type.REMOVE, e);
+        for (SetObserver<E> ob : snapshot()) {
+            ob.removed(this, e);
+        }
+    }
+
+    private void notifyElementsRemoved(List<E> removed, List<SetObserver<E>> snapshot) {
+        for (E e : removed) {
+            record(ChangeEvent.Type.REMOVE, e);
+        }
+        List<E> view = Collections.unmodifiableList(removed);
+        for (SetObserver<E> ob : snapshot) {
+            ob.removedAll(this, view);
+        }
+    }
+
+    private void record(ChangeEvent.Type type, E e) {
+        if (log != null) {
+            log.append(type, e);
+        }
+    }
+
+    /**
+     * 没有观察者也没有修改日志时，不需要知道具体修改了哪些元素，可以直接调用被装饰集合的批量方法
+     */
+    private boolean silent(List<SetObserver<E>> snapshot) {
+        return snapshot.isEmpty() && log == null;
+    }
+
     @FunctionalInterface
     public interface SetObserver<E> {
 
         void added(ObservableSet<E> set, E element);
 
+        /**
+         * 一次addAll实际添加的全部元素，默认逐个调用{@link #added}，需要批量处理时覆盖这个方法
+         */
+        default void addedAll(ObservableSet<E> set, List<E> elements) {
+            for (E e : elements) {
+                added(set, e);
+            }
+        }
+
+        default void removed(ObservableSet<E> set, E element) {
+        }
+
+        /**
+         * 一次removeAll、retainAll实际移除的全部元素，默认逐个调用{@link #removed}
+         */
+        default void removedAll(ObservableSet<E> set, List<E> elements) {
+            for (E e : elements) {
+                removed(set, e);
+            }
+        }
+
+        default void cleared(ObservableSet<E> set) {
+        }
+
     }
 
     @Override
@@ -97,13 +172,140 @@ public class ObservableSet<E> extends ForwardingSet<E> {
         return added;
     }
 
+    /**
+     * 逐个调用add会为每个元素拷贝一次观察者列表，这里整批元素只拷贝一次，添加完成后再一次性通知。
+     * 因此观察者收到通知时，这一批元素都已经在集合中了。
+     */
     @Override
     public boolean addAll(Collection<? extends E> c) {
-        boolean result = false;
+        List<SetObserver<E>> snapshot = snapshot();
+        if (silent(snapshot)) {
+            return super.addAll(c);
+        }
+        // Set.addAll只返回集合是否改变，得不到实际添加了哪些元素，所以逐个添加到被装饰的集合中，收集返回true的元素
+        List<E> added = new ArrayList<>();
         for (E e : c) {
-            result |= add(e);
+            if (super.add(e)) {
+                added.add(e);
+            }
+        }
+        if (added.isEmpty()) {
+            return false;
         }
-        return result;
+        for (E e : added) {
+            record(ChangeEvent.Type.ADD, e);
+        }
+        List<E> view = Collections.unmodifiableList(added);
+        for (SetObserver<E> ob : snapshot) {
+            ob.addedAll(this, view);
+        }
+        return true;
+    }
+
+    /**
+     * 能从集合中移除说明o与集合中的某个元素相等，可以当作E
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public boolean remove(Object o) {
+        boolean removed = super.remove(o);
+        if (removed) {
+            notifyElementRemoved((E) o);
+        }
+        return removed;
+    }
+
+    /**
+     * 与AbstractSet.removeAll相同，遍历两者中较小的一个
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        List<SetObserver<E>> snapshot = snapshot();
+        if (silent(snapshot)) {
+            return super.removeAll(c);
+        }
+        List<E> removed = new ArrayList<>();
+        if (size() > c.size()) {
+            for (Object o : c) {
+                if (s.remove(o)) {
+                    removed.add((E) o);
+                }
+            }
+        } else {
+            for (Iterator<E> it = s.iterator(); it.hasNext();) {
+                E e = it.next();
+                if (c.contains(e)) {
+                    it.remove();
+                    removed.add(e);
+                }
+            }
+        }
+        if (removed.isEmpty()) {
+            return false;
+        }
+        notifyElementsRemoved(removed, snapshot);
+        return true;
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        List<SetObserver<E>> snapshot = snapshot();
+        if (silent(snapshot)) {
+            return super.retainAll(c);
+        }
+        List<E> removed = new ArrayList<>();
+        for (Iterator<E> it = s.iterator(); it.hasNext();) {
+            E e = it.next();
+            if (!c.contains(e)) {
+                it.remove();
+                removed.add(e);
+            }
+        }
+        if (removed.isEmpty()) {
+            return false;
+        }
+        notifyElementsRemoved(removed, snapshot);
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        if (isEmpty()) {
+            return;
+        }
+        super.clear();
+        record(ChangeEvent.Type.CLEAR, null);
+        for (SetObserver<E> ob : snapshot()) {
+            ob.cleared(this);
+        }
+    }
+
+    /**
+     * 通过迭代器移除元素时同样要通知，默认的removeIf也是通过迭代器实现的
+     */
+    @Override
+    public Iterator<E> iterator() {
+        Iterator<E> it = super.iterator();
+        return new Iterator<>() {
+            private E last;
+
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public E next() {
+                return last = it.next();
+            }
+
+            @Override
+            public void remove() {
+                it.remove();
+                notifyElementRemoved(last);
+            }
+        };
     }
 
     public static void main(String[] args) {
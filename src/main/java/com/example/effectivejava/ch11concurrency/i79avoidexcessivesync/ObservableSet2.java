@@ -1,27 +1,33 @@
 package com.example.effectivejava.ch11concurrency.i79avoidexcessivesync;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 import com.example.effectivejava.ch11concurrency.i79avoidexcessivesync.collection.ForwardingSet;
 
 /**
  * <p>
- * 使用{@link java.util.concurrent.CopyOnWriteArrayList}实现。
- * 
+ * 观察者保存在{@link ObserverRegistry}中，所有访问观察者的操作都不再需要显式的同步语句。
+ *
  * <p>
- * 该类是一个ArrayList的变体，实现了线程安全，所有mutatior操作都对底层数组生成一个新的拷贝，在拷贝上进行修改，之后将拷贝数组对象赋值给列表底层数组引用。
- * 这样导致修改操作的开销很大，但是非常适合遍历多、修改少的应用情况。
- * 
+ * 通知观察者时遍历的是登记表某一时刻的快照：遍历不加锁，也不会因为观察者在回调中添加、移除观察者而抛出异常，
+ * 所以外来方法总是在同步区域之外被调用（开放调用）。遍历过程中新添加的观察者要到下一次通知才可见；
+ * 已经移除的观察者会被跳过，removeObserver返回后不会再收到通知，即使是正在进行的遍历。
+ *
  * <p>
- * 因为CopyOnWriteArrayList是线程安全的，所以移除了所有操作访问obs列表时显式的同步语句。
+ * 最早的版本使用{@link java.util.concurrent.CopyOnWriteArrayList}，它同样在快照上遍历，
+ * 但每次添加、移除都要拷贝整个底层数组，只适合遍历多、修改少的情况，
+ * 并且遍历时仍然会通知已经被移除的观察者。ObserverRegistry的添加、移除是均摊O(1)的，
+ * 大量观察者频繁进出时也不会退化。
  */
 public class ObservableSet2<E> extends ForwardingSet<E> {
 
     private final Set<E> s;
-    private final List<SetObserver<E>> obs = new CopyOnWriteArrayList<>();
+    private final ObserverRegistry<SetObserver<E>> obs = new ObserverRegistry<>();
 
     public static <E> ObservableSet2<E> of(Set<E> s) {
         return new ObservableSet2<>(s);
@@ -55,6 +61,15 @@ public class ObservableSet2<E> extends ForwardingSet<E> {
 
         void added(ObservableSet2<E> set, E element);
 
+        /**
+         * 一次addAll实际添加的全部元素，默认逐个调用{@link #added}，需要批量处理时覆盖这个方法
+         */
+        default void addedAll(ObservableSet2<E> set, List<E> elements) {
+            for (E e : elements) {
+                added(set, e);
+            }
+        }
+
     }
 
     @Override
@@ -66,13 +81,49 @@ public class ObservableSet2<E> extends ForwardingSet<E> {
         return added;
     }
 
+    /**
+     * 整批元素添加完成后只遍历一次观察者列表，观察者收到通知时这一批元素都已经在集合中了
+     */
     @Override
     public boolean addAll(Collection<? extends E> c) {
-        boolean result = false;
+        if (obs.isEmpty()) {
+            return super.addAll(c);
+        }
+        List<E> added = new ArrayList<>();
         for (E e : c) {
-            result |= add(e);
+            if (super.add(e)) {
+                added.add(e);
+            }
+        }
+        if (added.isEmpty()) {
+            return false;
+        }
+        List<E> view = Collections.unmodifiableList(added);
+        for (SetObserver<E> ob : obs) {
+            ob.addedAll(this, view);
+        }
+        return true;
+    }
+
+    /**
+     * 观察者在回调中移除另一个观察者，被移除的观察者在这次通知中就不会再被调用
+     */
+    public static void main(String[] args) {
+        ObservableSet2<Integer> set = ObservableSet2.of(new HashSet<>());
+        List<String> notified = new ArrayList<>();
+        SetObserver<Integer> b = (s, e) -> notified.add("B");
+        SetObserver<Integer> a = (s, e) -> {
+            notified.add("A");
+            s.removeObserver(b);
+        };
+        set.addObserver(a);
+        set.addObserver(b);
+
+        set.add(1);
+        System.out.println(notified);
+        if (!notified.equals(List.of("A"))) {
+            throw new AssertionError("Removed observer was notified: " + notified);
         }
-        return result;
     }
 
 }
@@ -0,0 +1,212 @@
+package com.example.effectivejava.ch11concurrency.i79avoidexcessivesync;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ * 观察者登记表，用来代替{@link CopyOnWriteArrayList}。
+ *
+ * <p>
+ * CopyOnWriteArrayList每次添加、移除都要拷贝整个数组。大量短期的订阅者频繁进出时，n次操作的总开销是O(n<sup>2</sup>)。
+ * 本类保留了它遍历时不加锁、不受并发修改影响的优点，同时让添加和移除的均摊开销为O(1)：
+ * 1.添加：数组只追加不修改，已发布的快照只读取自己长度以内的槽位，所以可以直接写入下一个槽位，
+ * 再发布一个长度加1的新快照，容量不够时才按倍数扩容。
+ * 2.移除：通过哈希表找到观察者所在的节点，把节点标记为已删除（墓碑），不移动数组。
+ * 墓碑超过一半时整理一次，拷贝出一个只包含有效节点的新数组，旧快照仍然引用旧数组，不受影响。
+ * 3.遍历：读取一次volatile的快照，之后只读不写，是wait-free的。遍历过程中跳过已删除的节点，
+ * 所以removeObserver返回后，即使是正在进行的遍历也不会再调用这个观察者，遍历中添加的观察者要到下一次遍历才可见。
+ * 迭代器不预先取出下一个观察者，直到hasNext、next被调用时才检查节点是否已删除，
+ * 所以观察者在回调中移除排在它后面的观察者，被移除的观察者在这次遍历中也不会被调用。
+ *
+ * <p>
+ * 每次修改都会增加版本号，调用方可以通过{@link #version()}判断登记表是否发生了变化。
+ * 修改操作之间使用锁互斥，遍历不加锁。
+ */
+public final class ObserverRegistry<T> implements Iterable<T> {
+    private static final int INITIAL_CAPACITY = 8;
+    private static final int MIN_TOMBSTONES_TO_COMPACT = 8;
+
+    private final Object lock = new Object();
+    private final Map<T, ArrayDeque<Node<T>>> index = new HashMap<>();
+    private volatile Snapshot<T> snapshot = new Snapshot<>(new Node<?>[INITIAL_CAPACITY], 0, 0);
+    private volatile int liveCount;
+    private int tombstones;
+
+    private static final class Node<T> {
+        /**
+         * 为null表示已经移除
+         */
+        volatile T value;
+
+        Node(T value) {
+            this.value = value;
+        }
+    }
+
+    /**
+     * 不可变的快照：nodes中[0, size)的槽位在发布后不会再被修改
+     */
+    private static final class Snapshot<T> {
+        final Node<?>[] nodes;
+        final int size;
+        final long version;
+
+        Snapshot(Node<?>[] nodes, int size, long version) {
+            this.nodes = nodes;
+            this.size = size;
+            this.version = version;
+        }
+    }
+
+    /**
+     * 同一个观察者可以登记多次，与List的语义相同
+     */
+    public boolean add(T t) {
+        Objects.requireNonNull(t);
+        synchronized (lock) {
+            Snapshot<T> s = snapshot;
+            Node<?>[] nodes = s.nodes;
+            if (s.size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, nodes.length * 2);
+            }
+            Node<T> node = new Node<>(t);
+            nodes[s.size] = node;
+            index.computeIfAbsent(t, k -> new ArrayDeque<>(1)).addLast(node);
+            liveCount++;
+            snapshot = new Snapshot<>(nodes, s.size + 1, s.version + 1);
+            return true;
+        }
+    }
+
+    /**
+     * 移除最早登记的一个
+     */
+    public boolean remove(Object o) {
+        synchronized (lock) {
+            ArrayDeque<Node<T>> nodes = index.get(o);
+            if (nodes == null) {
+                return false;
+            }
+            Node<T> node = nodes.pollFirst();
+            if (nodes.isEmpty()) {
+                index.remove(o);
+            }
+            node.value = null;
+            liveCount--;
+            tombstones++;
+            Snapshot<T> s = snapshot;
+            if (tombstones >= MIN_TOMBSTONES_TO_COMPACT && tombstones > s.size / 2) {
+                snapshot = compact(s);
+            } else {
+                snapshot = new Snapshot<>(s.nodes, s.size, s.version + 1);
+            }
+            return true;
+        }
+    }
+
+    private Snapshot<T> compact(Snapshot<T> s) {
+        Node<?>[] live = new Node<?>[Math.max(INITIAL_CAPACITY, liveCount * 2)];
+        int n = 0;
+        for (int i = 0; i < s.size; i++) {
+            if (s.nodes[i].value != null) {
+                live[n++] = s.nodes[i];
+            }
+        }
+        tombstones = 0;
+        return new Snapshot<>(live, n, s.version + 1);
+    }
+
+    public boolean isEmpty() {
+        return liveCount == 0;
+    }
+
+    public int size() {
+        return liveCount;
+    }
+
+    public long version() {
+        return snapshot.version;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        Snapshot<T> s = snapshot;
+        return new Iterator<>() {
+            private int cursor;
+            /**
+             * hasNext找到的下一个观察者，next返回后清空，下一次hasNext再重新检查后面的节点
+             */
+            private T next;
+
+            @SuppressWarnings("unchecked")
+            private T advance() {
+                while (cursor < s.size) {
+                    T value = ((Node<T>) s.nodes[cursor++]).value;
+                    if (value != null) {
+                        return value;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    next = advance();
+                }
+                return next != null;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                T result = next;
+                next = null;
+                return result;
+            }
+        };
+    }
+
+    /**
+     * 模拟大量订阅者先登记再逐个移除，对比CopyOnWriteArrayList
+     */
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            List<Object> cow = new CopyOnWriteArrayList<>();
+            churn(n, cow::add, cow::remove);
+            long cowElapsed = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            ObserverRegistry<Object> registry = new ObserverRegistry<>();
+            churn(n, registry::add, registry::remove);
+            long registryElapsed = System.nanoTime() - start;
+
+            System.out.printf("CopyOnWriteArrayList %,d ms, ObserverRegistry %,d ms%n",
+                    cowElapsed / 1_000_000, registryElapsed / 1_000_000);
+        }
+    }
+
+    private static void churn(int n, Consumer<Object> add, Consumer<Object> remove) {
+        Object[] subscribers = new Object[n];
+        for (int i = 0; i < n; i++) {
+            subscribers[i] = new Object();
+            add.accept(subscribers[i]);
+        }
+        for (Object subscriber : subscribers) {
+            remove.accept(subscriber);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.effectivejava.ch2instantiate.i7obsoletereference;
+
+/**
+ * 数组实现的栈的扩容和缩容策略。
+ *
+ * 清空过期引用只能让元素对象被回收，数组本身却一直保持在历史最大的容量。
+ * 一次突发压入几千万个元素后，即使栈已经空了，这个巨大的数组也不会被释放。
+ * 因此弹出时也需要检查，在空闲的槽位过多时缩小数组。
+ *
+ * 缩容需要有滞后（hysteresis）：如果容量减半后就满了，下一次压入又要扩容，
+ * 在临界点附近反复压入弹出就会不断地拷贝数组。默认的策略在元素数量降到容量的1/4时才把容量减半，
+ * 缩容后还留有一半的空闲槽位，摊还下来每次操作的代价仍然是O(1)。
+ */
+@FunctionalInterface
+public interface GrowthPolicy {
+
+    /**
+     * @return 数组已满时扩容后的容量，必须大于当前容量
+     */
+    int grow(int capacity);
+
+    /**
+     * @return 弹出元素后的新容量，返回当前容量表示不缩容
+     */
+    default int shrink(int size, int capacity, int minCapacity) {
+        if (capacity > minCapacity && size <= capacity / 4) {
+            return Math.max(minCapacity, capacity / 2);
+        }
+        return capacity;
+    }
+
+    /**
+     * 容量翻倍，也是原来的Stack采用的方式
+     */
+    static GrowthPolicy doubling() {
+        return capacity -> 2 * capacity + 1;
+    }
+
+    /**
+     * 每次扩容为原来的1.5倍，与ArrayList相同，空闲的槽位更少，但扩容的次数更多
+     */
+    static GrowthPolicy oneAndHalf() {
+        return capacity -> capacity + (capacity >> 1) + 1;
+    }
+
+    /**
+     * 每次增加固定数量的槽位，空闲的槽位最多只有两块，但扩容的总代价是O(n<sup>2</sup>/chunkSize)，
+     * 适用于容量上限可以预估、对内存占用比较敏感的场景
+     */
+    static GrowthPolicy chunked(int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+        }
+        return new GrowthPolicy() {
+            @Override
+            public int grow(int capacity) {
+                return capacity + chunkSize;
+            }
+
+            @Override
+            public int shrink(int size, int capacity, int minCapacity) {
+                if (capacity > minCapacity && capacity - size >= 2 * chunkSize) {
+                    return Math.max(minCapacity, capacity - chunkSize);
+                }
+                return capacity;
+            }
+        };
+    }
+
+    /**
+     * 只扩容，从不缩容
+     */
+    static GrowthPolicy growOnly(GrowthPolicy policy) {
+        return new GrowthPolicy() {
+            @Override
+            public int grow(int capacity) {
+                return policy.grow(capacity);
+            }
+
+            @Override
+            public int shrink(int size, int capacity, int minCapacity) {
+                return capacity;
+            }
+        };
+    }
+}
@@ -2,17 +2,29 @@ package com.example.effectivejava.ch2instantiate.i7obsoletereference;
 
 import java.util.Arrays;
 import java.util.EmptyStackException;
+import java.util.Objects;
 
 /**
  * 当类自己管理内存时，就需要警惕内存泄露问题。一旦元素不再需要，就应该清空对象引用。
+ * 
+ * 数组的容量同样是需要管理的内存，弹出元素时由{@link GrowthPolicy}决定是否缩小数组，默认不缩容。
  */
 public class MemoryLeakStack {
     private Object[] elements;
     private int size = 0;
+    private final GrowthPolicy policy;
     private static final int DEFAULT_INITIAL_CAPACITY = 16;
 
+    /**
+     * 与原来的行为相同：容量翻倍，从不缩容。需要缩容时使用{@link #MemoryLeakStack(GrowthPolicy)}
+     */
     public MemoryLeakStack() {
+        this(GrowthPolicy.growOnly(GrowthPolicy.doubling()));
+    }
+
+    public MemoryLeakStack(GrowthPolicy policy) {
         elements = new Object[DEFAULT_INITIAL_CAPACITY];
+        this.policy = Objects.requireNonNull(policy);
     }
 
     public void push(Object e) {
@@ -40,12 +52,35 @@ public class MemoryLeakStack {
         }
         Object result = elements[--size];
         elements[size] = null; // eliminate obsolete reference
+        shrinkIfNeeded();
         return result;
     }
 
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return elements.length;
+    }
+
+    /**
+     * 数组中空闲的槽位数，用来观察栈实际占用的内存
+     */
+    public int wastedSlots() {
+        return elements.length - size;
+    }
+
     private void ensureCapacity() {
         if (elements.length == size) {
-            elements = Arrays.copyOf(elements, 2 * size + 1);
+            elements = Arrays.copyOf(elements, Math.max(policy.grow(elements.length), elements.length + 1));
+        }
+    }
+
+    private void shrinkIfNeeded() {
+        int newCapacity = policy.shrink(size, elements.length, DEFAULT_INITIAL_CAPACITY);
+        if (newCapacity < elements.length) {
+            elements = Arrays.copyOf(elements, Math.max(newCapacity, size));
         }
     }
 }
@@ -0,0 +1,355 @@
+package com.example.effectivejava.ch3commonmethod.i13clone;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 线程安全的链地址法散列表，保持了{@link HashTable}中桶指向Entry链表的结构，思路参考ConcurrentHashMap。
+ *
+ * 1.读操作不加锁。桶的头节点通过VarHandle以volatile语义读取，Entry的value和next都是volatile的，
+ * 因此读线程总能看到一个完整的链表。
+ * 2.向空桶插入时，用CAS设置头节点；桶不为空时，只对该桶的头节点加锁，不同的桶之间互不影响。
+ * 3.扩容时把旧表按区间（stride）划分成多个任务，任何线程遇到正在迁移的桶都可以领取任务协助迁移。
+ * 迁移完成的桶会放置一个ForwardingEntry，读写线程遇到它就转到新表中继续操作。
+ * 迁移时复制Entry而不是修改原有节点的next，所以正在遍历旧链表的读线程不受影响。
+ * 4.元素数量使用{@link LongAdder}计数，它在内部使用分段（striped）的计数单元，多个线程同时更新时不会争用同一个变量。
+ *
+ * 注意并发散列表的size只是一个估计值，在有并发修改的时候并不精确。
+ */
+public class ConcurrentHashTable {
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+    private static final int MIN_TRANSFER_STRIDE = 16;
+    private static final int MOVED = -1;
+
+    private static final VarHandle BUCKET = MethodHandles.arrayElementVarHandle(Entry[].class);
+    private static final VarHandle TRANSFER;
+
+    static {
+        try {
+            TRANSFER = MethodHandles.lookup().findVarHandle(ConcurrentHashTable.class, "transfer", Transfer.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private volatile Entry[] table;
+    /**
+     * 正在进行的扩容，没有扩容时为null
+     */
+    private volatile Transfer transfer;
+    private final LongAdder count = new LongAdder();
+
+    public ConcurrentHashTable() {
+        table = new Entry[DEFAULT_INITIAL_CAPACITY];
+    }
+
+    static class Entry {
+        final int hash;
+        final Object key;
+        volatile Object value;
+        volatile Entry next;
+
+        Entry(int hash, Object key, Object value, Entry next) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+            this.next = next;
+        }
+    }
+
+    /**
+     * 放在已经迁移完成的桶中，指向扩容中的新表
+     */
+    static final class ForwardingEntry extends Entry {
+        final Transfer transfer;
+
+        ForwardingEntry(Transfer transfer) {
+            super(MOVED, null, null, null);
+            this.transfer = transfer;
+        }
+    }
+
+    public Object get(Object key) {
+        int hash = hash(Objects.requireNonNull(key));
+        Entry[] tab = table;
+        for (;;) {
+            Entry e = bucketAt(tab, hash & (tab.length - 1));
+            if (e == null) {
+                return null;
+            }
+            if (e.hash == MOVED) {
+                tab = ((ForwardingEntry) e).transfer.nextTable;
+                continue;
+            }
+            for (; e != null; e = e.next) {
+                if (e.hash == hash && key.equals(e.key)) {
+                    return e.value;
+                }
+            }
+            return null;
+        }
+    }
+
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @return 原来关联的值，不存在返回null
+     */
+    public Object put(Object key, Object value) {
+        int hash = hash(Objects.requireNonNull(key));
+        Objects.requireNonNull(value);
+        Entry[] tab = table;
+        for (;;) {
+            int i = hash & (tab.length - 1);
+            Entry head = bucketAt(tab, i);
+            if (head == null) {
+                if (BUCKET.compareAndSet(tab, i, null, new Entry(hash, key, value, null))) {
+                    count.increment();
+                    return null;
+                }
+            } else if (head.hash == MOVED) {
+                tab = helpTransfer((ForwardingEntry) head);
+            } else {
+                boolean locked = false;
+                boolean added = false;
+                Object old = null;
+                synchronized (head) {
+                    // 加锁前头节点可能已经被删除或迁移，需要重新检查
+                    if (bucketAt(tab, i) == head) {
+                        locked = true;
+                        for (Entry e = head;; e = e.next) {
+                            if (e.hash == hash && key.equals(e.key)) {
+                                old = e.value;
+                                e.value = value;
+                                break;
+                            }
+                            if (e.next == null) {
+                                e.next = new Entry(hash, key, value, null);
+                                added = true;
+                                break;
+                            }
+                        }
+                    }
+                }
+                if (locked) {
+                    if (added) {
+                        count.increment();
+                        // LongAdder.sum()的开销较大，只在发生冲突时才检查是否需要扩容
+                        tryResize(tab);
+                    }
+                    return old;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 被删除的值，不存在返回null
+     */
+    public Object remove(Object key) {
+        int hash = hash(Objects.requireNonNull(key));
+        Entry[] tab = table;
+        for (;;) {
+            int i = hash & (tab.length - 1);
+            Entry head = bucketAt(tab, i);
+            if (head == null) {
+                return null;
+            }
+            if (head.hash == MOVED) {
+                tab = helpTransfer((ForwardingEntry) head);
+                continue;
+            }
+            synchronized (head) {
+                if (bucketAt(tab, i) == head) {
+                    for (Entry e = head, prev = null; e != null; prev = e, e = e.next) {
+                        if (e.hash == hash && key.equals(e.key)) {
+                            if (prev == null) {
+                                BUCKET.setVolatile(tab, i, e.next);
+                            } else {
+                                prev.next = e.next;
+                            }
+                            count.decrement();
+                            return e.value;
+                        }
+                    }
+                    return null;
+                }
+            }
+        }
+    }
+
+    public int size() {
+        long n = count.sum();
+        return n < 0 ? 0 : n > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) n;
+    }
+
+    public boolean isEmpty() {
+        return count.sum() <= 0;
+    }
+
+    private static int hash(Object key) {
+        return HashTable.hash(key) & Integer.MAX_VALUE; // 负数留给ForwardingEntry使用
+    }
+
+    private static Entry bucketAt(Entry[] tab, int i) {
+        return (Entry) BUCKET.getVolatile(tab, i);
+    }
+
+    /**
+     * 同一时间只允许一次扩容，由CAS设置transfer字段的线程发起
+     */
+    private void tryResize(Entry[] tab) {
+        // 先检查再创建Transfer对象，避免为注定失败的CAS分配新表
+        if (transfer != null || table != tab || count.sum() < (long) tab.length * 3 / 4) {
+            return;
+        }
+        Transfer t = new Transfer(tab);
+        if (TRANSFER.compareAndSet(this, null, t)) {
+            // CAS成功后table不会再被其他线程修改，但CAS之前可能已经有其他线程完成了一次扩容
+            if (table != tab) {
+                TRANSFER.setVolatile(this, null);
+                return;
+            }
+            t.help();
+        }
+    }
+
+    private Entry[] helpTransfer(ForwardingEntry f) {
+        f.transfer.help();
+        return f.transfer.nextTable;
+    }
+
+    /**
+     * 一次扩容任务，每次扩容使用独立的对象，避免协助迁移的线程拿到过期的迁移进度
+     */
+    final class Transfer {
+        final Entry[] oldTable;
+        final Entry[] nextTable;
+        final ForwardingEntry forwarding = new ForwardingEntry(this);
+        /**
+         * 下一个待领取区间的上界，从高到低领取
+         */
+        private final AtomicInteger transferIndex;
+        /**
+         * 尚未迁移完成的桶的数量
+         */
+        private final AtomicInteger remaining;
+
+        Transfer(Entry[] oldTable) {
+            this.oldTable = oldTable;
+            this.nextTable = new Entry[oldTable.length * 2];
+            this.transferIndex = new AtomicInteger(oldTable.length);
+            this.remaining = new AtomicInteger(oldTable.length);
+        }
+
+        void help() {
+            int stride = Math.max(MIN_TRANSFER_STRIDE, oldTable.length / (8 * Runtime.getRuntime().availableProcessors()));
+            for (;;) {
+                int upper = transferIndex.get();
+                if (upper <= 0) {
+                    return;
+                }
+                int lower = Math.max(0, upper - stride);
+                if (!transferIndex.compareAndSet(upper, lower)) {
+                    continue;
+                }
+                for (int i = upper - 1; i >= lower; i--) {
+                    moveBucket(i);
+                }
+                if (remaining.addAndGet(lower - upper) == 0) {
+                    // 先发布新表，再清除扩容标记
+                    table = nextTable;
+                    TRANSFER.setVolatile(ConcurrentHashTable.this, null);
+                    return;
+                }
+            }
+        }
+
+        /**
+         * 容量翻倍后，旧表下标i中的元素只会被分到新表的i和i + n两个桶中
+         */
+        private void moveBucket(int i) {
+            int n = oldTable.length;
+            for (;;) {
+                Entry head = bucketAt(oldTable, i);
+                if (head == null) {
+                    if (BUCKET.compareAndSet(oldTable, i, null, forwarding)) {
+                        return;
+                    }
+                    continue;
+                }
+                synchronized (head) {
+                    if (bucketAt(oldTable, i) == head) {
+                        Entry lo = null;
+                        Entry hi = null;
+                        for (Entry e = head; e != null; e = e.next) {
+                            if ((e.hash & n) == 0) {
+                                lo = new Entry(e.hash, e.key, e.value, lo);
+                            } else {
+                                hi = new Entry(e.hash, e.key, e.value, hi);
+                            }
+                        }
+                        BUCKET.setVolatile(nextTable, i, lo);
+                        BUCKET.setVolatile(nextTable, i + n, hi);
+                        BUCKET.setVolatile(oldTable, i, forwarding);
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int perThread = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+
+        // 前几轮用于预热，只输出最后一轮的结果
+        for (int round = 0; round < 3; round++) {
+            ConcurrentHashTable table = new ConcurrentHashTable();
+            long elapsed = ingest(threads, perThread, table::put);
+            System.out.printf("ConcurrentHashTable: %d threads, size %,d, %,d ms%n", threads, table.size(), elapsed / 1_000_000);
+
+            HashTable locked = new HashTable();
+            elapsed = ingest(threads, perThread, (k, v) -> {
+                synchronized (locked) {
+                    locked.put(k, v);
+                }
+            });
+            System.out.printf("synchronized HashTable: %d threads, size %,d, %,d ms%n", threads, locked.size(), elapsed / 1_000_000);
+        }
+    }
+
+    private interface Put {
+        void put(Object key, Object value);
+    }
+
+    private static long ingest(int threads, int perThread, Put put) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            int base = t * perThread;
+            new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < perThread; i++) {
+                        put.put(base + i, i);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        return System.nanoTime() - begin;
+    }
+}
@@ -1,13 +1,50 @@
 package com.example.effectivejava.ch3commonmethod.i13clone;
 
 import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.BiConsumer;
 
+/**
+ * 链地址法（separate chaining）实现的散列表，每个桶指向一个Entry链表。
+ * 
+ * 开放寻址法（open addressing）的实现见{@link OpenAddressingHashTable}，
+ * 两者的性能对比见{@link HashTableBenchmark}。
+ * 
+ * 需要频繁拷贝快照时，可以使用结构共享的{@link PersistentHashTable}，它的clone代价是O(1)。
+ * 
+ * 默认的扩容方式会在一次put中把所有元素迁移到新的桶数组，这次put的耗时是O(n)。
+ * 通过{@link #withIncrementalRehash()}创建的实例采用渐进式（incremental）扩容，
+ * 新旧两个桶数组同时存在，每次get/put/remove只迁移固定数量的桶，把迁移的代价分摊到后续的操作中，
+ * 效果见{@link HashTableLatencyBenchmark}。
+ */
 public class HashTable implements Cloneable {
     private Entry[] buckets;
+    private int size;
+    private final boolean incrementalRehash;
+    /**
+     * 渐进式扩容过程中尚未迁移完的旧桶数组，下标小于rehashIndex的桶已经迁移到buckets中
+     */
+    private Entry[] oldBuckets;
+    private int rehashIndex;
     private static final int DEFAULT_INITIAL_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+    /**
+     * 每次操作最多迁移的桶数。
+     * 新数组在下一次扩容前至少还能容纳0.75 * n次插入，每次迁移多于4/3个桶就能保证在下一次扩容前迁移完成
+     */
+    private static final int REHASH_STEP = 4;
 
     public HashTable() {
+        this(false);
+    }
+
+    private HashTable(boolean incrementalRehash) {
         buckets = new Entry[DEFAULT_INITIAL_CAPACITY];
+        this.incrementalRehash = incrementalRehash;
+    }
+
+    public static HashTable withIncrementalRehash() {
+        return new HashTable(true);
     }
 
     /**
@@ -26,7 +63,13 @@ public class HashTable implements Cloneable {
      * 转换构造器就很容易实现：new TreeSet<>(s)。
      */
     public HashTable(HashTable hashtable) {
-        // copy
+        buckets = deepCopy(hashtable.buckets);
+        size = hashtable.size;
+        incrementalRehash = hashtable.incrementalRehash;
+        if (hashtable.oldBuckets != null) {
+            oldBuckets = deepCopy(hashtable.oldBuckets);
+            rehashIndex = hashtable.rehashIndex;
+        }
     }
 
     public static HashTable newInstance(HashTable hashtable) {
@@ -85,6 +128,168 @@ public class HashTable implements Cloneable {
         }
     }
 
+    public Object get(Object key) {
+        Entry e = find(Objects.requireNonNull(key));
+        return e == null ? null : e.value;
+    }
+
+    public boolean containsKey(Object key) {
+        return find(Objects.requireNonNull(key)) != null;
+    }
+
+    private Entry find(Object key) {
+        rehashStep();
+        int hash = hash(key);
+        Entry[] tab = bucketsFor(hash);
+        for (Entry e = tab[indexFor(hash, tab.length)]; e != null; e = e.next) {
+            if (key.equals(e.key)) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return 原来关联的值，不存在返回null
+     */
+    public Object put(Object key, Object value) {
+        Objects.requireNonNull(key);
+        rehashStep();
+        int hash = hash(key);
+        Entry[] tab = bucketsFor(hash);
+        int index = indexFor(hash, tab.length);
+        for (Entry e = tab[index]; e != null; e = e.next) {
+            if (key.equals(e.key)) {
+                Object old = e.value;
+                e.value = value;
+                return old;
+            }
+        }
+        tab[index] = new Entry(key, value, tab[index]);
+        if (++size > buckets.length * LOAD_FACTOR) {
+            resize(buckets.length * 2);
+        }
+        return null;
+    }
+
+    /**
+     * @return 被删除的值，不存在返回null
+     */
+    public Object remove(Object key) {
+        Objects.requireNonNull(key);
+        rehashStep();
+        int hash = hash(key);
+        Entry[] tab = bucketsFor(hash);
+        int index = indexFor(hash, tab.length);
+        for (Entry e = tab[index], prev = null; e != null; prev = e, e = e.next) {
+            if (key.equals(e.key)) {
+                if (prev == null) {
+                    tab[index] = e.next;
+                } else {
+                    prev.next = e.next;
+                }
+                size--;
+                return e.value;
+            }
+        }
+        return null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void forEach(BiConsumer<Object, Object> action) {
+        if (oldBuckets != null) {
+            for (int i = rehashIndex; i < oldBuckets.length; i++) {
+                for (Entry e = oldBuckets[i]; e != null; e = e.next) {
+                    action.accept(e.key, e.value);
+                }
+            }
+        }
+        for (Entry head : buckets) {
+            for (Entry e = head; e != null; e = e.next) {
+                action.accept(e.key, e.value);
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 渐进式扩容过程中，一个键只会存在于一个桶数组中：
+     * 它在旧数组中对应的桶还没有迁移，就在旧数组中，否则在新数组中。
+     * 新插入的键也遵循这个规则，随着旧桶的迁移一起移动，所以不会出现重复的键。
+     */
+    private Entry[] bucketsFor(int hash) {
+        if (oldBuckets != null && indexFor(hash, oldBuckets.length) >= rehashIndex) {
+            return oldBuckets;
+        }
+        return buckets;
+    }
+
+    /**
+     * 扩容时直接把原有的Entry重新链接到新的桶中，不需要创建新的Entry。
+     * 因为这些Entry都是当前Hashtable独占的（克隆时做了深拷贝），修改next不会影响其他对象。
+     */
+    private void resize(int newCapacity) {
+        // 上一次渐进式扩容还没有完成，先一次性迁移完，保证同一时间只有两个桶数组
+        while (oldBuckets != null) {
+            rehashStep();
+        }
+        Entry[] newBuckets = new Entry[newCapacity];
+        if (incrementalRehash) {
+            oldBuckets = buckets;
+            rehashIndex = 0;
+            buckets = newBuckets;
+            return;
+        }
+        for (Entry head : buckets) {
+            transfer(head, newBuckets);
+        }
+        buckets = newBuckets;
+    }
+
+    private void rehashStep() {
+        if (oldBuckets == null) {
+            return;
+        }
+        int end = Math.min(rehashIndex + REHASH_STEP, oldBuckets.length);
+        for (; rehashIndex < end; rehashIndex++) {
+            transfer(oldBuckets[rehashIndex], buckets);
+            oldBuckets[rehashIndex] = null;
+        }
+        if (rehashIndex == oldBuckets.length) {
+            oldBuckets = null;
+            rehashIndex = 0;
+        }
+    }
+
+    private static void transfer(Entry head, Entry[] dst) {
+        Entry e = head;
+        while (e != null) {
+            Entry next = e.next;
+            int index = indexFor(hash(e.key), dst.length);
+            e.next = dst[index];
+            dst[index] = e;
+            e = next;
+        }
+    }
+
+    /**
+     * 把高位扰动到低位，避免容量为2的幂时只有hashCode的低位参与计算下标
+     */
+    static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    static int indexFor(int hash, int length) {
+        return hash & (length - 1);
+    }
+
     /**
      * 可以不抛出异常，返回类型和当前类相同
      * 
@@ -95,11 +300,9 @@ public class HashTable implements Cloneable {
     protected HashTable clone() {
         try {
             HashTable result = (HashTable) super.clone();
-            result.buckets = new Entry[buckets.length];
-            for (int i = 0; i < buckets.length; i++) {
-                if (buckets[i] != null) {
-                    result.buckets[i] = buckets[i].deepCopy();
-                }
+            result.buckets = deepCopy(buckets);
+            if (oldBuckets != null) {
+                result.oldBuckets = deepCopy(oldBuckets);
             }
             return result;
         } catch (CloneNotSupportedException e) {
@@ -107,6 +310,16 @@ public class HashTable implements Cloneable {
         }
     }
 
+    private static Entry[] deepCopy(Entry[] src) {
+        Entry[] result = new Entry[src.length];
+        for (int i = 0; i < src.length; i++) {
+            if (src[i] != null) {
+                result[i] = src[i].deepCopy();
+            }
+        }
+        return result;
+    }
+
     public static void main(String[] args) {
         int[][] arr1 = { { 1 }, { 2 }, { 3 } };
         System.out.println(Arrays.toString(Arrays.copyOf(arr1, 5)));
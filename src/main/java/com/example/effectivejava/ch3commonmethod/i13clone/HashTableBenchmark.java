@@ -0,0 +1,108 @@
+package com.example.effectivejava.ch3commonmethod.i13clone;
+
+import java.util.Random;
+
+/**
+ * 链地址法{@link HashTable}与开放寻址法{@link OpenAddressingHashTable}的简单性能对比。
+ *
+ * 这只是一个粗略的测量，每种实现先预热若干轮，让JIT完成编译，再取最后一轮的耗时。
+ * 需要准确的数据应该使用JMH这样的基准测试框架。
+ *
+ * 通过参数选择键的分布，用来观察不同的键分布对两种实现的影响：
+ * sequential - 连续的整数键
+ * random     - 随机整数键
+ * string     - 字符串键，hashCode计算和equals比较的开销更大
+ *
+ * 用法：HashTableBenchmark [chained|open|both] [sequential|random|string] [n]
+ */
+public class HashTableBenchmark {
+    private static final int WARMUP_ROUNDS = 5;
+
+    public static void main(String[] args) {
+        String mode = args.length > 0 ? args[0] : "both";
+        String distribution = args.length > 1 ? args[1] : "random";
+        int n = args.length > 2 ? Integer.parseInt(args[2]) : 1_000_000;
+
+        Object[] keys = keys(distribution, n);
+        if (mode.equals("chained") || mode.equals("both")) {
+            run("chained", keys, HashTableBenchmark::chained);
+        }
+        if (mode.equals("open") || mode.equals("both")) {
+            run("open", keys, HashTableBenchmark::openAddressing);
+        }
+    }
+
+    private static Object[] keys(String distribution, int n) {
+        Random rnd = new Random(42);
+        Object[] keys = new Object[n];
+        for (int i = 0; i < n; i++) {
+            switch (distribution) {
+            case "sequential":
+                keys[i] = i;
+                break;
+            case "random":
+                keys[i] = rnd.nextInt();
+                break;
+            case "string":
+                keys[i] = "key-" + rnd.nextInt();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown distribution: " + distribution);
+            }
+        }
+        return keys;
+    }
+
+    private static void run(String name, Object[] keys, Workload workload) {
+        long elapsed = 0;
+        long checksum = 0;
+        for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+            long start = System.nanoTime();
+            checksum += workload.run(keys);
+            elapsed = System.nanoTime() - start;
+        }
+        System.out.printf("%-8s %,d keys: %,d ms (checksum %d)%n", name, keys.length, elapsed / 1_000_000, checksum);
+    }
+
+    /**
+     * 依次put所有的键，get所有的键，再remove一半的键
+     */
+    private static long chained(Object[] keys) {
+        HashTable table = new HashTable();
+        for (Object key : keys) {
+            table.put(key, key);
+        }
+        long hits = 0;
+        for (Object key : keys) {
+            if (table.get(key) != null) {
+                hits++;
+            }
+        }
+        for (int i = 0; i < keys.length; i += 2) {
+            table.remove(keys[i]);
+        }
+        return hits + table.size();
+    }
+
+    private static long openAddressing(Object[] keys) {
+        OpenAddressingHashTable table = new OpenAddressingHashTable();
+        for (Object key : keys) {
+            table.put(key, key);
+        }
+        long hits = 0;
+        for (Object key : keys) {
+            if (table.get(key) != null) {
+                hits++;
+            }
+        }
+        for (int i = 0; i < keys.length; i += 2) {
+            table.remove(keys[i]);
+        }
+        return hits + table.size();
+    }
+
+    @FunctionalInterface
+    private interface Workload {
+        long run(Object[] keys);
+    }
+}
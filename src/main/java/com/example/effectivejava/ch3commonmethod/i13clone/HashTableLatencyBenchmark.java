@@ -0,0 +1,53 @@
+package com.example.effectivejava.ch3commonmethod.i13clone;
+
+import com.example.effectivejava.ch4classandinterface.i18composition.LatencyHistogram;
+
+/**
+ * 对比一次性扩容和渐进式扩容的{@link HashTable}中，单次put操作耗时的分布。
+ *
+ * 平均耗时看不出两者的区别，扩容的代价体现在长尾上：
+ * 一次性扩容时，触发扩容的那次put需要迁移全部元素，p99.9和最大值都会明显升高；
+ * 渐进式扩容把迁移分摊到后续的操作中，长尾会平缓很多。
+ *
+ * 测量的是包含GC在内的耗时，建议使用较大的堆运行（如-Xms2g -Xmx2g），避免GC停顿掩盖扩容的影响。
+ *
+ * 耗时记录在{@link LatencyHistogram}中，单线程记录时原子计数器没有竞争，额外开销只有几纳秒。
+ *
+ * 用法：HashTableLatencyBenchmark [n]
+ */
+public class HashTableLatencyBenchmark {
+    private static final int WARMUP_ROUNDS = 5;
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        Integer[] keys = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = i;
+        }
+
+        for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+            LatencyHistogram.Snapshot eager = measure(new HashTable(), keys);
+            LatencyHistogram.Snapshot incremental = measure(HashTable.withIncrementalRehash(), keys);
+            if (round == WARMUP_ROUNDS) {
+                print("eager      ", eager);
+                print("incremental", incremental);
+            }
+        }
+    }
+
+    private static LatencyHistogram.Snapshot measure(HashTable table, Integer[] keys) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (Integer key : keys) {
+            long start = System.nanoTime();
+            table.put(key, key);
+            histogram.record(System.nanoTime() - start);
+        }
+        return histogram.snapshot();
+    }
+
+    private static void print(String name, LatencyHistogram.Snapshot histogram) {
+        System.out.printf("%s p50=%,dns p99=%,dns p99.9=%,dns p99.99=%,dns max=%,dns%n", name,
+                histogram.percentile(50), histogram.percentile(99), histogram.percentile(99.9),
+                histogram.percentile(99.99), histogram.max());
+    }
+}
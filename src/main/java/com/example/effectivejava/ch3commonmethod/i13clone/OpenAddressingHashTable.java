@@ -0,0 +1,183 @@
+package com.example.effectivejava.ch3commonmethod.i13clone;
+
+import java.util.Objects;
+
+/**
+ * 开放寻址法（open addressing）实现的散列表，采用线性探测（linear probing）。
+ *
+ * 与{@link HashTable}的链地址法相比，键和值保存在两个平行的数组中，没有Entry节点：
+ * 1.查找时顺序访问相邻的数组槽位，不需要沿着链表追踪指针，对CPU缓存更友好。
+ * 2.每个元素只占用两个数组槽位，省去了Entry的对象头、next引用等开销，内存占用大约是链地址法的一半。
+ *
+ * 删除元素时不能直接把槽位置为null，否则会截断后面元素的探测序列，因此使用墓碑（tombstone）标记。
+ * 墓碑也会占用槽位并拉长探测序列，当墓碑过多时，按原容量重新散列一次，把墓碑清理掉（compaction）。
+ *
+ * 本例中的数组是当前对象独占的，与i13中的讨论一样，克隆时必须拷贝数组，
+ * 不过数组中只有键值的引用，不存在深层结构，所以直接使用数组的clone方法即可。
+ */
+public class OpenAddressingHashTable implements Cloneable {
+    private static final Object TOMBSTONE = new Object();
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private Object[] keys;
+    private Object[] values;
+    private int size;
+    private int tombstones;
+
+    public OpenAddressingHashTable() {
+        keys = new Object[DEFAULT_INITIAL_CAPACITY];
+        values = new Object[DEFAULT_INITIAL_CAPACITY];
+    }
+
+    /**
+     * 转换构造器，可以把链地址法实现的HashTable转换成开放寻址法实现
+     */
+    public OpenAddressingHashTable(HashTable table) {
+        this();
+        table.forEach(this::put);
+    }
+
+    public OpenAddressingHashTable(OpenAddressingHashTable table) {
+        keys = table.keys.clone();
+        values = table.values.clone();
+        size = table.size;
+        tombstones = table.tombstones;
+    }
+
+    public Object get(Object key) {
+        int index = indexOf(Objects.requireNonNull(key));
+        return index < 0 ? null : values[index];
+    }
+
+    public boolean containsKey(Object key) {
+        return indexOf(Objects.requireNonNull(key)) >= 0;
+    }
+
+    /**
+     * @return 原来关联的值，不存在返回null
+     */
+    public Object put(Object key, Object value) {
+        Objects.requireNonNull(key);
+        int mask = keys.length - 1;
+        int firstTombstone = -1;
+        for (int i = HashTable.indexFor(HashTable.hash(key), keys.length);; i = (i + 1) & mask) {
+            Object k = keys[i];
+            if (k == null) {
+                // 优先复用探测路径上遇到的第一个墓碑，缩短以后的探测序列
+                if (firstTombstone >= 0) {
+                    i = firstTombstone;
+                    tombstones--;
+                }
+                keys[i] = key;
+                values[i] = value;
+                size++;
+                if (size + tombstones > keys.length * LOAD_FACTOR) {
+                    rehash();
+                }
+                return null;
+            }
+            if (k == TOMBSTONE) {
+                if (firstTombstone < 0) {
+                    firstTombstone = i;
+                }
+            } else if (key.equals(k)) {
+                Object old = values[i];
+                values[i] = value;
+                return old;
+            }
+        }
+    }
+
+    /**
+     * @return 被删除的值，不存在返回null
+     */
+    public Object remove(Object key) {
+        int index = indexOf(Objects.requireNonNull(key));
+        if (index < 0) {
+            return null;
+        }
+        Object old = values[index];
+        keys[index] = TOMBSTONE;
+        values[index] = null; // eliminate obsolete reference
+        size--;
+        tombstones++;
+        return old;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private int indexOf(Object key) {
+        int mask = keys.length - 1;
+        for (int i = HashTable.indexFor(HashTable.hash(key), keys.length);; i = (i + 1) & mask) {
+            Object k = keys[i];
+            if (k == null) {
+                return -1;
+            }
+            if (k != TOMBSTONE && key.equals(k)) {
+                return i;
+            }
+        }
+    }
+
+    /**
+     * 有效元素超过容量的一半时扩容，否则说明主要是墓碑占用了槽位，按原容量重新散列即可
+     */
+    private void rehash() {
+        int newCapacity = size > keys.length / 2 ? keys.length * 2 : keys.length;
+        Object[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new Object[newCapacity];
+        values = new Object[newCapacity];
+        tombstones = 0;
+        int mask = newCapacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            Object k = oldKeys[j];
+            if (k != null && k != TOMBSTONE) {
+                int i = HashTable.indexFor(HashTable.hash(k), newCapacity);
+                while (keys[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = k;
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    @Override
+    protected OpenAddressingHashTable clone() {
+        try {
+            OpenAddressingHashTable result = (OpenAddressingHashTable) super.clone();
+            result.keys = keys.clone();
+            result.values = values.clone();
+            return result;
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "OpenAddressingHashTable[size=" + size + ", capacity=" + keys.length
+                + ", tombstones=" + tombstones + "]";
+    }
+
+    public static void main(String[] args) {
+        OpenAddressingHashTable table = new OpenAddressingHashTable();
+        for (int i = 0; i < 100; i++) {
+            table.put(i, "v" + i);
+        }
+        for (int i = 0; i < 100; i += 2) {
+            table.remove(i);
+        }
+        System.out.println(table);
+        System.out.println(table.get(1) + " " + table.get(2));
+        System.out.println(table.clone().get(99));
+    }
+}
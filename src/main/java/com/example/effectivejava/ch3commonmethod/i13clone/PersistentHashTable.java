@@ -0,0 +1,371 @@
+package com.example.effectivejava.ch3commonmethod.i13clone;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+
+/**
+ * 基于哈希数组映射字典树（HAMT，Hash Array Mapped Trie）的持久化（persistent）散列表。
+ *
+ * {@link HashTable}的clone方法需要对每个桶的链表进行深拷贝，拷贝的代价是O(n)。
+ * 如果需要频繁地拷贝快照，这部分开销就非常可观了。
+ *
+ * 本例换了一个思路：内部的节点都是不可变的（见i17），不可变对象可以被自由地共享，
+ * 因此clone方法和转换构造器只需要共享根节点即可，代价是O(1)。
+ * 修改时不会改动原有节点，而是只复制从根节点到被修改节点这一条路径（path copying），
+ * 其余没有变化的子树仍然在新旧两个对象之间共享。
+ *
+ * 每一层用hash中的5位作为下标，所以树的深度最多为7层，每次修改最多复制7个节点。
+ * 每个节点使用一个32位的bitmap记录哪些下标上有数据，数组只保存存在的数据，避免稀疏数组浪费空间。
+ *
+ * 与{@link HashTable}相同，键不能为null，值可以为null。节点中用null表示“不存在”，
+ * 所以null值在节点中保存为{@link #NULL_VALUE}，读取时再还原。
+ * 与HashTable一样，get返回null时需要用containsKey区分键不存在和值为null。
+ */
+public class PersistentHashTable implements Cloneable {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    private static final Object NULL_VALUE = new Object();
+
+    private Node root;
+    private int size;
+
+    public PersistentHashTable() {
+        root = BitmapNode.EMPTY;
+    }
+
+    /**
+     * 转换构造器，所有节点都是不可变的，直接共享根节点即可
+     */
+    public PersistentHashTable(PersistentHashTable table) {
+        root = table.root;
+        size = table.size;
+    }
+
+    /**
+     * 值为null的键值对同样会被复制
+     */
+    public PersistentHashTable(HashTable table) {
+        this();
+        table.forEach(this::put);
+    }
+
+    public Object get(Object key) {
+        return unmask(find(key));
+    }
+
+    public boolean containsKey(Object key) {
+        return find(key) != null;
+    }
+
+    private Object find(Object key) {
+        Objects.requireNonNull(key);
+        return root.get(0, HashTable.hash(key), key);
+    }
+
+    private static Object mask(Object value) {
+        return value == null ? NULL_VALUE : value;
+    }
+
+    private static Object unmask(Object value) {
+        return value == NULL_VALUE ? null : value;
+    }
+
+    /**
+     * @return 原来关联的值，不存在返回null
+     */
+    public Object put(Object key, Object value) {
+        Objects.requireNonNull(key);
+        Result result = new Result();
+        root = root.put(0, HashTable.hash(key), key, mask(value), result);
+        if (result.added) {
+            size++;
+        }
+        return unmask(result.oldValue);
+    }
+
+    /**
+     * @return 被删除的值，不存在返回null
+     */
+    public Object remove(Object key) {
+        Objects.requireNonNull(key);
+        Result result = new Result();
+        Node newRoot = root.remove(0, HashTable.hash(key), key, result);
+        root = newRoot == null ? BitmapNode.EMPTY : newRoot;
+        if (result.oldValue != null) {
+            size--;
+        }
+        return unmask(result.oldValue);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void forEach(BiConsumer<Object, Object> action) {
+        Objects.requireNonNull(action);
+        root.forEach((k, v) -> action.accept(k, unmask(v)));
+    }
+
+    /**
+     * 不再需要深拷贝，super.clone()得到的浅拷贝就是正确的结果
+     */
+    @Override
+    protected PersistentHashTable clone() {
+        try {
+            return (PersistentHashTable) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError();
+        }
+    }
+
+    /**
+     * 记录一次修改操作的结果，节点方法需要同时返回新的节点和这些信息
+     */
+    private static final class Result {
+        boolean added;
+        Object oldValue;
+    }
+
+    private interface Node {
+        Object get(int shift, int hash, Object key);
+
+        /**
+         * @return 修改后的节点，没有变化时返回当前节点
+         */
+        Node put(int shift, int hash, Object key, Object value, Result result);
+
+        /**
+         * @return 修改后的节点，节点变为空时返回null，没有变化时返回当前节点
+         */
+        Node remove(int shift, int hash, Object key, Result result);
+
+        void forEach(BiConsumer<Object, Object> action);
+    }
+
+    /**
+     * array中每两个元素为一组：[key, value]表示一个键值对，[null, Node]表示一个子节点
+     */
+    private static final class BitmapNode implements Node {
+        static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        private final int bitmap;
+        private final Object[] array;
+
+        BitmapNode(int bitmap, Object[] array) {
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        @Override
+        public Object get(int shift, int hash, Object key) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+            int idx = 2 * index(bit);
+            Object k = array[idx];
+            Object v = array[idx + 1];
+            if (k == null) {
+                return ((Node) v).get(shift + BITS, hash, key);
+            }
+            return key.equals(k) ? v : null;
+        }
+
+        @Override
+        public Node put(int shift, int hash, Object key, Object value, Result result) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            int idx = 2 * index(bit);
+            if ((bitmap & bit) == 0) {
+                Object[] newArray = new Object[array.length + 2];
+                System.arraycopy(array, 0, newArray, 0, idx);
+                newArray[idx] = key;
+                newArray[idx + 1] = value;
+                System.arraycopy(array, idx, newArray, idx + 2, array.length - idx);
+                result.added = true;
+                return new BitmapNode(bitmap | bit, newArray);
+            }
+
+            Object k = array[idx];
+            Object v = array[idx + 1];
+            if (k == null) {
+                Node sub = ((Node) v).put(shift + BITS, hash, key, value, result);
+                return sub == v ? this : with(idx + 1, sub);
+            }
+            if (key.equals(k)) {
+                result.oldValue = v;
+                return v == value ? this : with(idx + 1, value);
+            }
+
+            // 两个不同的键落在同一个下标，下沉到新的子节点中
+            result.added = true;
+            Node sub = createNode(shift + BITS, k, v, hash, key, value);
+            Object[] newArray = array.clone();
+            newArray[idx] = null;
+            newArray[idx + 1] = sub;
+            return new BitmapNode(bitmap, newArray);
+        }
+
+        @Override
+        public Node remove(int shift, int hash, Object key, Result result) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            int idx = 2 * index(bit);
+            Object k = array[idx];
+            Object v = array[idx + 1];
+            if (k == null) {
+                Node sub = ((Node) v).remove(shift + BITS, hash, key, result);
+                if (sub == v) {
+                    return this;
+                }
+                return sub != null ? with(idx + 1, sub) : without(bit, idx);
+            }
+            if (key.equals(k)) {
+                result.oldValue = v;
+                return without(bit, idx);
+            }
+            return this;
+        }
+
+        @Override
+        public void forEach(BiConsumer<Object, Object> action) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (array[i] == null) {
+                    ((Node) array[i + 1]).forEach(action);
+                } else {
+                    action.accept(array[i], array[i + 1]);
+                }
+            }
+        }
+
+        private BitmapNode with(int i, Object o) {
+            Object[] newArray = array.clone();
+            newArray[i] = o;
+            return new BitmapNode(bitmap, newArray);
+        }
+
+        private BitmapNode without(int bit, int idx) {
+            if (bitmap == bit) {
+                return null;
+            }
+            Object[] newArray = new Object[array.length - 2];
+            System.arraycopy(array, 0, newArray, 0, idx);
+            System.arraycopy(array, idx + 2, newArray, idx, array.length - idx - 2);
+            return new BitmapNode(bitmap & ~bit, newArray);
+        }
+
+        private static Node createNode(int shift, Object k1, Object v1, int h2, Object k2, Object v2) {
+            int h1 = HashTable.hash(k1);
+            if (h1 == h2) {
+                return new CollisionNode(h1, new Object[] { k1, v1, k2, v2 });
+            }
+            Result ignored = new Result();
+            return EMPTY.put(shift, h1, k1, v1, ignored)
+                    .put(shift, h2, k2, v2, ignored);
+        }
+    }
+
+    /**
+     * hash完全相同的键无法再通过下标区分，只能线性查找
+     */
+    private static final class CollisionNode implements Node {
+        private final int hash;
+        private final Object[] array;
+
+        CollisionNode(int hash, Object[] array) {
+            this.hash = hash;
+            this.array = array;
+        }
+
+        private int indexOf(Object key) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public Object get(int shift, int hash, Object key) {
+            int idx = indexOf(key);
+            return idx < 0 ? null : array[idx + 1];
+        }
+
+        @Override
+        public Node put(int shift, int hash, Object key, Object value, Result result) {
+            if (hash != this.hash) {
+                // 把当前节点作为子节点放到一个新的BitmapNode中，再插入新的键
+                int bit = 1 << ((this.hash >>> shift) & MASK);
+                return new BitmapNode(bit, new Object[] { null, this })
+                        .put(shift, hash, key, value, result);
+            }
+            int idx = indexOf(key);
+            if (idx >= 0) {
+                result.oldValue = array[idx + 1];
+                if (array[idx + 1] == value) {
+                    return this;
+                }
+                Object[] newArray = array.clone();
+                newArray[idx + 1] = value;
+                return new CollisionNode(hash, newArray);
+            }
+            result.added = true;
+            Object[] newArray = Arrays.copyOf(array, array.length + 2);
+            newArray[array.length] = key;
+            newArray[array.length + 1] = value;
+            return new CollisionNode(hash, newArray);
+        }
+
+        @Override
+        public Node remove(int shift, int hash, Object key, Result result) {
+            int idx = indexOf(key);
+            if (idx < 0) {
+                return this;
+            }
+            result.oldValue = array[idx + 1];
+            if (array.length == 2) {
+                return null;
+            }
+            Object[] newArray = new Object[array.length - 2];
+            System.arraycopy(array, 0, newArray, 0, idx);
+            System.arraycopy(array, idx + 2, newArray, idx, array.length - idx - 2);
+            return new CollisionNode(hash, newArray);
+        }
+
+        @Override
+        public void forEach(BiConsumer<Object, Object> action) {
+            for (int i = 0; i < array.length; i += 2) {
+                action.accept(array[i], array[i + 1]);
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        PersistentHashTable table = new PersistentHashTable();
+        for (int i = 0; i < n; i++) {
+            table.put(i, i);
+        }
+
+        long start = System.nanoTime();
+        PersistentHashTable snapshot = table.clone();
+        System.out.printf("clone %,d entries: %,d ns%n", n, System.nanoTime() - start);
+
+        // 修改快照不会影响原来的对象
+        snapshot.put(0, "changed");
+        snapshot.remove(1);
+        System.out.println(table.get(0) + " " + table.get(1) + " " + table.size());
+        System.out.println(snapshot.get(0) + " " + snapshot.get(1) + " " + snapshot.size());
+    }
+}
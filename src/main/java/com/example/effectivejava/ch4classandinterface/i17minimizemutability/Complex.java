@@ -1,5 +1,7 @@
 package com.example.effectivejava.ch4classandinterface.i17minimizemutability;
 
+import java.util.concurrent.atomic.LongAdder;
+
 /**
  * 不可变类示例：复数类
  * 
@@ -19,6 +21,7 @@ package com.example.effectivejava.ch4classandinterface.i17minimizemutability;
  * 1.如果可以预测客户端可能在不可变类上执行哪些多步骤的复杂操作，可以提供一个包级私有的可变的配套类（companing class）。
  * 例如BigInteger就有这样的配套类，用于加速诸如模指数等运算。
  * 2.如果无法预测，可以提供一个公有的可变配套类，比如String的可变配套类是StringBuilder。
+ * Complex的公有可变配套类是{@link MutableComplex}。
  * 
  * 
  * 更多详见i17
@@ -49,10 +52,70 @@ public final class Complex {
      * 所有基本类型的包装类和BigInteger都有这样的静态工厂。
      * 公有构造器无法使用缓存。
      * 在设计新类的时候，使用静态工厂代替公有构造器，可以让以后有添加缓存的灵活性，而不必影响客户端。
+     * 
+     * 这里的缓存是一个数组：由re、im的原始位计算出相邻的两个槽位（2路组相联），其中有值相同的实例就直接返回，
+     * 否则创建新实例放入第一个槽位，原来第一个槽位中的实例移到第二个槽位，淘汰第二个槽位中的实例。
+     * 只用一个槽位（直接映射）时，映射到同一槽位的两个常用值会不断地相互替换，两个槽位可以大大减少这种冲突。
+     * 缓存大小固定，不会无限增长，频繁请求的值会一直留在缓存中。
+     * 读写槽位都不加锁，多个线程同时替换同一个槽位时只是有一个线程的实例没有被缓存，结果仍然正确。
+     * 因为Complex的所有字段都是final的，其他线程从槽位中读到的实例一定是完整初始化的，这也是不可变对象可以被自由共享的体现。
+     * 
+     * 按原始位比较，所以0.0和-0.0是不同的值，与equals一致。
      */
     public static Complex valueOf(double re, double im) {
-        // TODO 从缓存获取
-        return new Complex(re, im);
+        long reBits = Double.doubleToRawLongBits(re);
+        long imBits = Double.doubleToRawLongBits(im);
+        int index = indexOf(reBits, imBits);
+        Complex first = CACHE[index];
+        if (matches(first, reBits, imBits)) {
+            CACHE_HITS.increment();
+            return first;
+        }
+        Complex second = CACHE[index + 1];
+        if (matches(second, reBits, imBits)) {
+            CACHE_HITS.increment();
+            return second;
+        }
+        CACHE_MISSES.increment();
+        Complex c = new Complex(re, im);
+        CACHE[index + 1] = first;
+        CACHE[index] = c;
+        return c;
+    }
+
+    private static boolean matches(Complex c, long reBits, long imBits) {
+        return c != null
+                && Double.doubleToRawLongBits(c.re) == reBits
+                && Double.doubleToRawLongBits(c.im) == imBits;
+    }
+
+    private static final int CACHE_BITS = 13;
+    private static final Complex[] CACHE = new Complex[1 << CACHE_BITS];
+    private static final LongAdder CACHE_HITS = new LongAdder();
+    private static final LongAdder CACHE_MISSES = new LongAdder();
+
+    static {
+        for (Complex c : new Complex[] { ZERO, ONE, I }) {
+            CACHE[indexOf(Double.doubleToRawLongBits(c.re), Double.doubleToRawLongBits(c.im))] = c;
+        }
+    }
+
+    /**
+     * 整数和常见的小数的低位往往都是0，先乘以奇数常量把差异扩散到高位，再取最高的几位作为组号
+     *
+     * @return 组中第一个槽位的下标
+     */
+    private static int indexOf(long reBits, long imBits) {
+        long h = (reBits * 0x9E3779B97F4A7C15L + imBits) * 0xC2B2AE3D27D4EB4FL;
+        return (int) (h >>> (64 - CACHE_BITS + 1)) << 1;
+    }
+
+    public static long cacheHits() {
+        return CACHE_HITS.sum();
+    }
+
+    public static long cacheMisses() {
+        return CACHE_MISSES.sum();
     }
 
     private final double re;
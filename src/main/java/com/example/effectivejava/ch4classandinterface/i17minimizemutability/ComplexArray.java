@@ -0,0 +1,224 @@
+package com.example.effectivejava.ch4classandinterface.i17minimizemutability;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * <p>
+ * 复数数组，实部和虚部分别保存在两个double[]中（struct of arrays）。
+ *
+ * <p>
+ * Complex[]中每个元素都是一个单独的对象，除了16字节的数据，还有对象头和数组中的引用，
+ * 对象在堆中分散存放，遍历时缓存的利用率很低。本类中的数据连续存放，每个元素只占16字节。
+ *
+ * <p>
+ * 批量运算都是对[from, to)范围逐个下标的简单循环，没有跨下标的依赖，C2可以自动向量化（SIMD）。
+ * 运算结果写入dst，dst可以是参与运算的数组本身，这时就是原地运算。
+ *
+ * <p>
+ * 通过{@link #get(int)}、{@link #set(int, Complex)}与Complex互相转换。
+ * 本类不是线程安全的。
+ */
+public final class ComplexArray {
+    final double[] re;
+    final double[] im;
+
+    public ComplexArray(int length) {
+        this.re = new double[length];
+        this.im = new double[length];
+    }
+
+    public static ComplexArray of(Complex... values) {
+        ComplexArray a = new ComplexArray(values.length);
+        for (int i = 0; i < values.length; i++) {
+            a.set(i, values[i]);
+        }
+        return a;
+    }
+
+    public int length() {
+        return re.length;
+    }
+
+    public Complex get(int i) {
+        return Complex.valueOf(re[i], im[i]);
+    }
+
+    /**
+     * 读入dst，不创建新对象
+     */
+    public MutableComplex get(int i, MutableComplex dst) {
+        return dst.set(re[i], im[i]);
+    }
+
+    public void set(int i, Complex c) {
+        re[i] = c.realPart();
+        im[i] = c.imaginaryPart();
+    }
+
+    public void set(int i, double re, double im) {
+        this.re[i] = re;
+        this.im[i] = im;
+    }
+
+    public double realPart(int i) {
+        return re[i];
+    }
+
+    public double imaginaryPart(int i) {
+        return im[i];
+    }
+
+    public Complex[] toArray() {
+        Complex[] result = new Complex[length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = get(i);
+        }
+        return result;
+    }
+
+    public ComplexArray copy() {
+        ComplexArray copy = new ComplexArray(length());
+        System.arraycopy(re, 0, copy.re, 0, re.length);
+        System.arraycopy(im, 0, copy.im, 0, im.length);
+        return copy;
+    }
+
+    private void checkRange(ComplexArray that, ComplexArray dst, int from, int to) {
+        Objects.checkFromToIndex(from, to, length());
+        Objects.checkFromToIndex(from, to, that.length());
+        Objects.checkFromToIndex(from, to, dst.length());
+    }
+
+    public ComplexArray plus(ComplexArray that, ComplexArray dst) {
+        return plus(that, dst, 0, length());
+    }
+
+    /**
+     * dst[i] = this[i] + that[i]
+     */
+    public ComplexArray plus(ComplexArray that, ComplexArray dst, int from, int to) {
+        checkRange(that, dst, from, to);
+        double[] ar = re, ai = im, br = that.re, bi = that.im, dr = dst.re, di = dst.im;
+        for (int i = from; i < to; i++) {
+            dr[i] = ar[i] + br[i];
+            di[i] = ai[i] + bi[i];
+        }
+        return dst;
+    }
+
+    public ComplexArray minus(ComplexArray that, ComplexArray dst) {
+        return minus(that, dst, 0, length());
+    }
+
+    /**
+     * dst[i] = this[i] - that[i]
+     */
+    public ComplexArray minus(ComplexArray that, ComplexArray dst, int from, int to) {
+        checkRange(that, dst, from, to);
+        double[] ar = re, ai = im, br = that.re, bi = that.im, dr = dst.re, di = dst.im;
+        for (int i = from; i < to; i++) {
+            dr[i] = ar[i] - br[i];
+            di[i] = ai[i] - bi[i];
+        }
+        return dst;
+    }
+
+    public ComplexArray times(ComplexArray that, ComplexArray dst) {
+        return times(that, dst, 0, length());
+    }
+
+    /**
+     * dst[i] = this[i] * that[i]，先读出所有操作数再写入，dst与操作数相同时也是正确的
+     */
+    public ComplexArray times(ComplexArray that, ComplexArray dst, int from, int to) {
+        checkRange(that, dst, from, to);
+        double[] ar = re, ai = im, br = that.re, bi = that.im, dr = dst.re, di = dst.im;
+        for (int i = from; i < to; i++) {
+            double xr = ar[i], xi = ai[i], yr = br[i], yi = bi[i];
+            dr[i] = xr * yr - xi * yi;
+            di[i] = xr * yi + xi * yr;
+        }
+        return dst;
+    }
+
+    public ComplexArray dividedBy(ComplexArray that, ComplexArray dst) {
+        return dividedBy(that, dst, 0, length());
+    }
+
+    /**
+     * dst[i] = this[i] / that[i]
+     */
+    public ComplexArray dividedBy(ComplexArray that, ComplexArray dst, int from, int to) {
+        checkRange(that, dst, from, to);
+        double[] ar = re, ai = im, br = that.re, bi = that.im, dr = dst.re, di = dst.im;
+        for (int i = from; i < to; i++) {
+            double xr = ar[i], xi = ai[i], yr = br[i], yi = bi[i];
+            double tmp = yr * yr + yi * yi;
+            dr[i] = (xr * yr + xi * yi) / tmp;
+            di[i] = (xi * yr - xr * yi) / tmp;
+        }
+        return dst;
+    }
+
+    public ComplexArray conjugate(ComplexArray dst) {
+        return conjugate(dst, 0, length());
+    }
+
+    /**
+     * dst[i] = conj(this[i])
+     */
+    public ComplexArray conjugate(ComplexArray dst, int from, int to) {
+        checkRange(this, dst, from, to);
+        double[] ar = re, ai = im, dr = dst.re, di = dst.im;
+        for (int i = from; i < to; i++) {
+            dr[i] = ar[i];
+            di[i] = -ai[i];
+        }
+        return dst;
+    }
+
+    public double[] magnitude(double[] dst) {
+        return magnitude(dst, 0, length());
+    }
+
+    /**
+     * dst[i] = |this[i]|。
+     * 没有使用Math.hypot，它为了避免中间结果溢出要做额外的处理，无法向量化，也慢得多；
+     * 这里直接计算sqrt(re<sup>2</sup> + im<sup>2</sup>)，分量超过1e154左右时平方会溢出。
+     */
+    public double[] magnitude(double[] dst, int from, int to) {
+        Objects.checkFromToIndex(from, to, length());
+        Objects.checkFromToIndex(from, to, dst.length);
+        double[] ar = re, ai = im;
+        for (int i = from; i < to; i++) {
+            dst[i] = Math.sqrt(ar[i] * ar[i] + ai[i] * ai[i]);
+        }
+        return dst;
+    }
+
+    /**
+     * 实部和虚部都按位相等
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ComplexArray)) {
+            return false;
+        }
+        ComplexArray a = (ComplexArray) obj;
+        return Arrays.equals(re, a.re) && Arrays.equals(im, a.im);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(re) + Arrays.hashCode(im);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.effectivejava.ch4classandinterface.i17minimizemutability;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * <p>
+ * 对比Complex[]与{@link ComplexArray}逐元素相乘的耗时。
+ *
+ * <p>
+ * 加上-XX:+UnlockDiagnosticVMOptions -XX:+PrintAssembly（需要hsdis）可以看到ComplexArray.times中的向量指令。
+ * 每种实现先预热若干轮，再取最后一轮的结果。这只是粗略的对比，需要准确的数据应该使用JMH。
+ *
+ * <p>
+ * 用法：ComplexArrayBenchmark [n]
+ */
+public class ComplexArrayBenchmark {
+    private static final int WARMUP_ROUNDS = 5;
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        Complex[] a = new Complex[n];
+        Complex[] b = new Complex[n];
+        Complex[] c = new Complex[n];
+        ComplexArray sa = new ComplexArray(n);
+        ComplexArray sb = new ComplexArray(n);
+        ComplexArray sc = new ComplexArray(n);
+        for (int i = 0; i < n; i++) {
+            a[i] = Complex.valueOf(rnd.nextDouble(), rnd.nextDouble());
+            b[i] = Complex.valueOf(rnd.nextDouble(), rnd.nextDouble());
+            sa.set(i, a[i]);
+            sb.set(i, b[i]);
+        }
+
+        for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                c[i] = a[i].times(b[i]);
+            }
+            long objects = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            sa.times(sb, sc);
+            long soa = System.nanoTime() - start;
+
+            if (round == WARMUP_ROUNDS) {
+                System.out.printf("Complex[] %,d ms, ComplexArray %,d ms (%s == %s)%n",
+                        objects / 1_000_000, soa / 1_000_000, c[n - 1], sc.get(n - 1));
+            }
+        }
+    }
+}
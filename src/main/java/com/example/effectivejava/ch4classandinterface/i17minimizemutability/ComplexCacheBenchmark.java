@@ -0,0 +1,85 @@
+package com.example.effectivejava.ch4classandinterface.i17minimizemutability;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * {@link Complex#valueOf}缓存的效果：对比反复请求一组固定的值（比如FFT中的旋转因子）与每次请求不同的值时的内存分配量和GC次数。
+ *
+ * 每种负载先预热若干轮，再取最后一轮的结果。分配量通过HotSpot的ThreadMXBean统计当前线程分配的字节数。
+ * 这只是粗略的对比，需要准确的数据应该使用JMH。
+ *
+ * 用法：ComplexCacheBenchmark [n]
+ */
+public class ComplexCacheBenchmark {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int TWIDDLES = 1024;
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        run("twiddle factors", n, ComplexCacheBenchmark::twiddles);
+        run("random values", n, ComplexCacheBenchmark::random);
+    }
+
+    private static void run(String name, int n, Workload workload) {
+        double checksum = 0;
+        for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+            long hitsBefore = Complex.cacheHits();
+            long missesBefore = Complex.cacheMisses();
+            long gcBefore = gcCount();
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            checksum += workload.run(n);
+            long elapsed = System.nanoTime() - start;
+            long allocated = allocatedBytes() - allocatedBefore;
+            if (round == WARMUP_ROUNDS) {
+                long hits = Complex.cacheHits() - hitsBefore;
+                long misses = Complex.cacheMisses() - missesBefore;
+                System.out.printf("%-16s %,d ms, %.1f bytes/op, %d GCs, hit rate %.1f%% (checksum %.3f)%n",
+                        name, elapsed / 1_000_000, (double) allocated / n, gcCount() - gcBefore,
+                        100.0 * hits / (hits + misses), checksum);
+            }
+        }
+    }
+
+    /**
+     * 每次重新计算旋转因子e<sup>-2πik/N</sup>再请求实例
+     */
+    private static double twiddles(int n) {
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            double angle = -2 * Math.PI * (i % TWIDDLES) / TWIDDLES;
+            sum += Complex.valueOf(Math.cos(angle), Math.sin(angle)).realPart();
+        }
+        return sum;
+    }
+
+    private static double random(int n) {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += Complex.valueOf(rnd.nextDouble(), rnd.nextDouble()).realPart();
+        }
+        return sum;
+    }
+
+    private static long allocatedBytes() {
+        return THREAD_MX_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    @FunctionalInterface
+    private interface Workload {
+        double run(int n);
+    }
+}
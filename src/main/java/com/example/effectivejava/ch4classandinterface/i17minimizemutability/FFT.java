@@ -0,0 +1,225 @@
+package com.example.effectivejava.ch4classandinterface.i17minimizemutability;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <p>
+ * 快速傅里叶变换（FFT），迭代的基2 Cooley-Tukey算法，复杂度O(n log n)，长度必须是2的幂。
+ *
+ * <p>
+ * 1.在{@link ComplexArray}上原地变换，实部、虚部连续存放，不为任何元素创建对象。
+ * 每一级只创建一个描述这一级参数的小对象，并行时还有拆分出的任务，与n个元素相比数量可以忽略。
+ * 为已有的Complex[]调用方提供了{@link #transform(Complex[])}、{@link #inverse(Complex[])}，返回新的数组。
+ * 2.旋转因子e<sup>-2πik/n</sup>只与长度n有关，长度不超过2<sup>{@value #MAX_CACHED_LOG}</sup>时每种长度只计算一次，
+ * 按log<sub>2</sub>n缓存在数组中，所有线程共享，缓存的表一直保留，最多共占用约16MB。
+ * 更长的变换每次重新计算旋转因子（长度为2<sup>24</sup>时一张表就有128MB），与O(n log n)的变换相比只多了O(n)的开销。
+ * 长度为n的变换中，各级蝶形运算用到的旋转因子都可以按步长从这个表中取得。
+ * 3.长度不小于{@value #PARALLEL_THRESHOLD}时，每一级的n/2个蝶形运算相互独立，拆分后在ForkJoinPool中并行执行，
+ * 各级之间按顺序进行。
+ *
+ * <p>
+ * 性能测试见{@link FFTBenchmark}。
+ */
+public final class FFT {
+    static final int PARALLEL_THRESHOLD = 1 << 16;
+    /**
+     * 并行时每个任务至少处理的蝶形运算个数
+     */
+    private static final int GRAIN = 1 << 13;
+
+    static final int MAX_CACHED_LOG = 20;
+
+    /**
+     * 第i个元素是长度为2<sup>i</sup>的旋转因子表
+     */
+    private static final AtomicReferenceArray<Twiddles> TWIDDLES = new AtomicReferenceArray<>(MAX_CACHED_LOG + 1);
+
+    private FFT() {
+    }
+
+    /**
+     * 长度为n的旋转因子表：cos[k] + i * sin[k] = e<sup>-2πik/n</sup>，0 <= k < n/2
+     */
+    private static final class Twiddles {
+        final double[] cos;
+        final double[] sin;
+
+        Twiddles(int n) {
+            int half = n >>> 1;
+            cos = new double[half];
+            sin = new double[half];
+            for (int k = 0; k < half; k++) {
+                double angle = -2 * Math.PI * k / n;
+                cos[k] = Math.cos(angle);
+                sin[k] = Math.sin(angle);
+            }
+        }
+    }
+
+    /**
+     * 多个线程同时计算同一长度时可能重复计算，只有一个结果会被缓存，结果都是相同的
+     */
+    private static Twiddles twiddles(int n) {
+        int log = Integer.numberOfTrailingZeros(n);
+        if (log > MAX_CACHED_LOG) {
+            return new Twiddles(n);
+        }
+        Twiddles tw = TWIDDLES.get(log);
+        if (tw == null) {
+            tw = new Twiddles(n);
+            if (!TWIDDLES.compareAndSet(log, null, tw)) {
+                tw = TWIDDLES.get(log);
+            }
+        }
+        return tw;
+    }
+
+    /**
+     * 原地正变换
+     */
+    public static void transform(ComplexArray a) {
+        transform(a, false, a.length() >= PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * 原地逆变换，结果已经除以n
+     */
+    public static void inverse(ComplexArray a) {
+        transform(a, true, a.length() >= PARALLEL_THRESHOLD);
+        double scale = 1.0 / a.length();
+        double[] re = a.re;
+        double[] im = a.im;
+        for (int i = 0; i < re.length; i++) {
+            re[i] *= scale;
+            im[i] *= scale;
+        }
+    }
+
+    public static Complex[] transform(Complex[] input) {
+        ComplexArray a = ComplexArray.of(input);
+        transform(a);
+        return a.toArray();
+    }
+
+    public static Complex[] inverse(Complex[] input) {
+        ComplexArray a = ComplexArray.of(input);
+        inverse(a);
+        return a.toArray();
+    }
+
+    /**
+     * 逆变换使用共轭的旋转因子
+     */
+    static void transform(ComplexArray a, boolean inverse, boolean parallel) {
+        int n = a.length();
+        if (Integer.bitCount(n) != 1) {
+            throw new IllegalArgumentException("Length must be a power of 2: " + n);
+        }
+        if (n == 1) {
+            return;
+        }
+        bitReverse(a.re, a.im);
+        Twiddles tw = twiddles(n);
+        double sign = inverse ? -1 : 1;
+        for (int half = 1; half < n; half <<= 1) {
+            Stage stage = new Stage(a.re, a.im, tw, half, n / (half << 1), sign);
+            if (parallel) {
+                ForkJoinPool.commonPool().invoke(new Butterflies(stage, 0, n >>> 1));
+            } else {
+                stage.butterflies(0, n >>> 1);
+            }
+        }
+    }
+
+    /**
+     * 把下标i的元素与下标的二进制位逆序后的元素交换，之后每一级的蝶形运算都在相邻的块中进行
+     */
+    private static void bitReverse(double[] re, double[] im) {
+        int n = re.length;
+        int shift = 32 - Integer.numberOfTrailingZeros(n);
+        for (int i = 0; i < n; i++) {
+            int j = Integer.reverse(i) >>> shift;
+            if (i < j) {
+                double t = re[i];
+                re[i] = re[j];
+                re[j] = t;
+                t = im[i];
+                im[i] = im[j];
+                im[j] = t;
+            }
+        }
+    }
+
+    /**
+     * 一级蝶形运算：长度为2 * half的每个块中，第j个元素与第j + half个元素组合
+     */
+    private static final class Stage {
+        final double[] re;
+        final double[] im;
+        final Twiddles tw;
+        final int half;
+        final int step;
+        final double sign;
+
+        Stage(double[] re, double[] im, Twiddles tw, int half, int step, double sign) {
+            this.re = re;
+            this.im = im;
+            this.tw = tw;
+            this.half = half;
+            this.step = step;
+            this.sign = sign;
+        }
+
+        /**
+         * 执行编号在[from, to)之间的蝶形运算，第b个蝶形运算位于第b / half块中的第b % half个位置
+         */
+        void butterflies(int from, int to) {
+            double[] re = this.re;
+            double[] im = this.im;
+            double[] cos = tw.cos;
+            double[] sin = tw.sin;
+            int mask = half - 1;
+            for (int b = from; b < to; b++) {
+                int j = b & mask;
+                int i = ((b - j) << 1) + j;
+                int k = i + half;
+                double wr = cos[j * step];
+                double wi = sign * sin[j * step];
+                double vr = re[k] * wr - im[k] * wi;
+                double vi = re[k] * wi + im[k] * wr;
+                double ur = re[i];
+                double ui = im[i];
+                re[i] = ur + vr;
+                im[i] = ui + vi;
+                re[k] = ur - vr;
+                im[k] = ui - vi;
+            }
+        }
+    }
+
+    private static final class Butterflies extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Stage stage;
+        private final int from;
+        private final int to;
+
+        Butterflies(Stage stage, int from, int to) {
+            this.stage = stage;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= GRAIN) {
+                stage.butterflies(from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Butterflies(stage, from, mid), new Butterflies(stage, mid, to));
+        }
+    }
+}
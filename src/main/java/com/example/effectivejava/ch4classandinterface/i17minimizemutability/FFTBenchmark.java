@@ -0,0 +1,94 @@
+package com.example.effectivejava.ch4classandinterface.i17minimizemutability;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * <p>
+ * {@link FFT}在不同长度下的耗时，分别测量串行和并行，并用逆变换检查误差。
+ * 长度较小时还与直接按定义计算的O(n<sup>2</sup>) DFT对比耗时，并检查串行FFT的结果与DFT的误差。
+ *
+ * <p>
+ * 每种长度先预热若干轮，再取最后一轮的结果。这只是粗略的对比，需要准确的数据应该使用JMH。
+ * 长度为2<sup>24</sup>时需要约1GB的堆。
+ *
+ * <p>
+ * 用法：FFTBenchmark [minLog2] [maxLog2]，默认从2<sup>10</sup>到2<sup>20</sup>
+ */
+public class FFTBenchmark {
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MAX_DFT_LENGTH = 1 << 12;
+
+    public static void main(String[] args) {
+        int minLog = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int maxLog = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        for (int log = minLog; log <= maxLog; log++) {
+            int n = 1 << log;
+            ComplexArray input = random(n);
+            long sequential = 0;
+            long parallel = 0;
+            double error = 0;
+            ComplexArray result = null;
+            for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+                ComplexArray a = input.copy();
+                long start = System.nanoTime();
+                FFT.transform(a, false, false);
+                sequential = System.nanoTime() - start;
+                result = a;
+
+                ComplexArray b = input.copy();
+                start = System.nanoTime();
+                FFT.transform(b, false, true);
+                parallel = System.nanoTime() - start;
+
+                FFT.inverse(b);
+                error = maxError(input, b);
+            }
+            System.out.printf("2^%-2d sequential %,10d us, parallel %,10d us, round-trip error %.2e",
+                    log, sequential / 1000, parallel / 1000, error);
+            if (n <= MAX_DFT_LENGTH) {
+                long start = System.nanoTime();
+                ComplexArray expected = dft(input);
+                System.out.printf(", DFT %,d us, error vs DFT %.2e", (System.nanoTime() - start) / 1000,
+                        maxError(expected, result));
+            }
+            System.out.println();
+        }
+    }
+
+    private static ComplexArray random(int n) {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        ComplexArray a = new ComplexArray(n);
+        for (int i = 0; i < n; i++) {
+            a.set(i, rnd.nextDouble(-1, 1), rnd.nextDouble(-1, 1));
+        }
+        return a;
+    }
+
+    private static double maxError(ComplexArray expected, ComplexArray actual) {
+        double max = 0;
+        for (int i = 0; i < expected.length(); i++) {
+            max = Math.max(max, Math.abs(expected.realPart(i) - actual.realPart(i)));
+            max = Math.max(max, Math.abs(expected.imaginaryPart(i) - actual.imaginaryPart(i)));
+        }
+        return max;
+    }
+
+    /**
+     * 按定义计算，使用MutableComplex累加，不为每次运算创建对象
+     */
+    private static ComplexArray dft(ComplexArray x) {
+        int n = x.length();
+        ComplexArray result = new ComplexArray(n);
+        MutableComplex sum = new MutableComplex();
+        MutableComplex term = new MutableComplex();
+        for (int k = 0; k < n; k++) {
+            sum.set(0, 0);
+            for (int t = 0; t < n; t++) {
+                double angle = -2 * Math.PI * ((long) k * t % n) / n;
+                sum.add(x.get(t, term).mul(Math.cos(angle), Math.sin(angle)));
+            }
+            result.set(k, sum.realPart(), sum.imaginaryPart());
+        }
+        return result;
+    }
+}
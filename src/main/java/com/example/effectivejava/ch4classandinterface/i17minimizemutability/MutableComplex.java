@@ -0,0 +1,197 @@
+package com.example.effectivejava.ch4classandinterface.i17minimizemutability;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * <p>
+ * {@link Complex}的公有可变配套类，就像StringBuilder之于String。
+ *
+ * <p>
+ * Complex的每次运算都会创建一个新对象，多步骤的运算中除了最终结果，中间结果都会被丢弃。
+ * 本类的运算直接修改当前对象，并返回this以便链式调用，整个运算过程只需要一个对象，最后再通过{@link #toImmutable()}转换为Complex。
+ *
+ * <p>
+ * 注意方法名称是动词（add、mul），与Complex中的介词（plus、times）相对，强调会改变对象的值。
+ *
+ * <p>
+ * 可变对象的值会变化，所以不重写equals和hashCode，也不应该作为Map的键或者放入Set中。
+ * 本类不是线程安全的。
+ */
+public final class MutableComplex {
+    private double re;
+    private double im;
+
+    public MutableComplex() {
+    }
+
+    public MutableComplex(double re, double im) {
+        this.re = re;
+        this.im = im;
+    }
+
+    public MutableComplex(Complex c) {
+        this(c.realPart(), c.imaginaryPart());
+    }
+
+    public double realPart() {
+        return re;
+    }
+
+    public double imaginaryPart() {
+        return im;
+    }
+
+    public MutableComplex set(double re, double im) {
+        this.re = re;
+        this.im = im;
+        return this;
+    }
+
+    public MutableComplex set(Complex c) {
+        return set(c.realPart(), c.imaginaryPart());
+    }
+
+    public MutableComplex set(MutableComplex c) {
+        return set(c.re, c.im);
+    }
+
+    public MutableComplex add(double re, double im) {
+        this.re += re;
+        this.im += im;
+        return this;
+    }
+
+    public MutableComplex add(Complex c) {
+        return add(c.realPart(), c.imaginaryPart());
+    }
+
+    public MutableComplex add(MutableComplex c) {
+        return add(c.re, c.im);
+    }
+
+    public MutableComplex sub(double re, double im) {
+        this.re -= re;
+        this.im -= im;
+        return this;
+    }
+
+    public MutableComplex sub(Complex c) {
+        return sub(c.realPart(), c.imaginaryPart());
+    }
+
+    public MutableComplex sub(MutableComplex c) {
+        return sub(c.re, c.im);
+    }
+
+    public MutableComplex mul(double re, double im) {
+        double r = this.re * re - this.im * im;
+        this.im = this.re * im + this.im * re;
+        this.re = r;
+        return this;
+    }
+
+    public MutableComplex mul(Complex c) {
+        return mul(c.realPart(), c.imaginaryPart());
+    }
+
+    public MutableComplex mul(MutableComplex c) {
+        return mul(c.re, c.im);
+    }
+
+    public MutableComplex div(double re, double im) {
+        double tmp = re * re + im * im;
+        double r = (this.re * re + this.im * im) / tmp;
+        this.im = (this.im * re - this.re * im) / tmp;
+        this.re = r;
+        return this;
+    }
+
+    public MutableComplex div(Complex c) {
+        return div(c.realPart(), c.imaginaryPart());
+    }
+
+    public MutableComplex div(MutableComplex c) {
+        return div(c.re, c.im);
+    }
+
+    /**
+     * this += a * b
+     */
+    public MutableComplex fma(Complex a, Complex b) {
+        double ar = a.realPart();
+        double ai = a.imaginaryPart();
+        double br = b.realPart();
+        double bi = b.imaginaryPart();
+        return add(ar * br - ai * bi, ar * bi + ai * br);
+    }
+
+    /**
+     * this += a * b
+     */
+    public MutableComplex fma(MutableComplex a, MutableComplex b) {
+        return add(a.re * b.re - a.im * b.im, a.re * b.im + a.im * b.re);
+    }
+
+    public MutableComplex scale(double factor) {
+        re *= factor;
+        im *= factor;
+        return this;
+    }
+
+    public MutableComplex conjugate() {
+        im = -im;
+        return this;
+    }
+
+    public Complex toImmutable() {
+        return Complex.valueOf(re, im);
+    }
+
+    @Override
+    public String toString() {
+        return "(" + re + " + " + im + "i)";
+    }
+
+    /**
+     * 用Horner方法计算多项式c[0] + c[1]x + ... + c[n]x<sup>n</sup>，
+     * 整个过程只使用一个可变对象，除了最终结果外不再创建其他对象
+     */
+    public static Complex horner(Complex x, Complex... coefficients) {
+        MutableComplex acc = new MutableComplex();
+        for (int i = coefficients.length - 1; i >= 0; i--) {
+            acc.mul(x).add(coefficients[i]);
+        }
+        return acc.toImmutable();
+    }
+
+    /**
+     * 对比用Complex和MutableComplex计算多项式时的内存分配量
+     */
+    public static void main(String[] args) {
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Complex[] coefficients = new Complex[64];
+        for (int i = 0; i < coefficients.length; i++) {
+            coefficients[i] = Complex.valueOf(1.0 / (i + 1), -1.0 / (i + 1));
+        }
+        Complex x = Complex.valueOf(0.5, 0.25);
+        int n = 200_000;
+        for (int round = 0; round < 5; round++) {
+            long before = mx.getThreadAllocatedBytes(Thread.currentThread().getId());
+            Complex immutable = Complex.ZERO;
+            for (int j = 0; j < n; j++) {
+                immutable = Complex.ZERO;
+                for (int i = coefficients.length - 1; i >= 0; i--) {
+                    immutable = immutable.times(x).plus(coefficients[i]);
+                }
+            }
+            long middle = mx.getThreadAllocatedBytes(Thread.currentThread().getId());
+            Complex mutable = null;
+            for (int j = 0; j < n; j++) {
+                mutable = horner(x, coefficients);
+            }
+            long after = mx.getThreadAllocatedBytes(Thread.currentThread().getId());
+            System.out.printf("Complex %.1f bytes/eval, MutableComplex %.1f bytes/eval, %s == %s%n",
+                    (double) (middle - before) / n, (double) (after - middle) / n, immutable, mutable);
+        }
+    }
+}
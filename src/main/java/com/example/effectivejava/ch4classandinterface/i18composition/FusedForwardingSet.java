@@ -0,0 +1,590 @@
+package com.example.effectivejava.ch4classandinterface.i18composition;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * <p>
+ * 把计数、同步、观察者这几种转发行为合并到一个final类中的Set。
+ *
+ * <p>
+ * 把多个{@link ForwardingSet}的子类层层包装起来时，每个方法都要经过每一层的delegate()和对下一层的接口调用。
+ * ForwardingSet中的这些调用点被所有子类共用，看到的接收者类型超过两种后就成为megamorphic调用点，
+ * C2不再内联，只能通过虚方法表调用，后续的优化（比如逃逸分析）也随之失效。
+ *
+ * <p>
+ * 本类是final的，启用哪些行为在构造时由{@link Builder}决定，保存在final字段中，方法中用简单的分支判断。
+ * 这样从调用方到被包装的Set之间只有一次接口调用，其余的调用都是单态的，可以被完全内联。
+ * 对比见{@link FusedForwardingSetBenchmark}。
+ *
+ * <p>
+ * 行为等价于从外到内依次是计数、同步、观察者的包装，不同的是观察者在释放锁之后才被调用（开放调用）。
+ * 只有通过iterator().remove()移除元素时例外，这时客户端持有锁，观察者也在锁内被调用。
+ *
+ * <p>
+ * 计数的规则：add计数的是尝试添加的次数，与{@link InstrumentedSet}相同；
+ * retainAll、removeIf、clear没有“尝试移除”的次数，所以所有移除操作统一按实际移除的元素计数。
+ * 批量操作在对参数集合的同一次遍历中计数，不调用参数集合的size()，参数集合可能是并发集合，size()不准确或者需要再遍历一次。
+ *
+ * <p>
+ * 观察者可以收到添加、移除和清空的通知，与i79中{@link com.example.effectivejava.ch11concurrency.i79avoidexcessivesync.ObservableSet}
+ * 的观察者层对应，但观察者在构造时确定，不能再添加、移除，也没有批量通知和修改日志。
+ * i79中的ForwardingSet没有合并：那里的ObservableSet、AsyncObservableSet各自直接包装被装饰的Set，没有层层叠加，
+ * 它们需要的运行时登记观察者、修改日志、异步投递也不适合在构造时固定下来。
+ * 启用同步时，与Collections.synchronizedSet相同：
+ * Set接口的缺省方法removeIf、forEach也都重写了，在同一个锁中完成，否则它们会通过iterator()在锁外遍历，
+ * 这正是i21中缺省方法破坏同步承诺的问题；
+ * iterator、spliterator、stream、parallelStream返回的对象在之后才会被使用，无法在方法内加锁，
+ * 客户端需要自己在{@link #mutex()}上同步后再使用它们。
+ */
+public final class FusedForwardingSet<E> implements Set<E> {
+    private final Set<E> delegate;
+    /**
+     * 不同步时为null
+     */
+    private final Object mutex;
+    /**
+     * 不计数时为null
+     */
+    private final LongAdder adds;
+    private final LongAdder removes;
+    /**
+     * 没有观察者时为null
+     */
+    private final SetObserver<? super E> observer;
+
+    /**
+     * 集合修改后的回调，在释放锁之后调用
+     */
+    @FunctionalInterface
+    public interface SetObserver<E> {
+
+        void added(E element);
+
+        default void removed(E element) {
+        }
+
+        /**
+         * 清空前集合不为空时才调用
+         */
+        default void cleared() {
+        }
+
+    }
+
+    private FusedForwardingSet(Builder<E> builder) {
+        this.delegate = builder.delegate;
+        this.mutex = builder.selfMutex ? this : builder.mutex;
+        this.adds = builder.instrument ? new LongAdder() : null;
+        this.removes = builder.instrument ? new LongAdder() : null;
+        this.observer = builder.observer;
+    }
+
+    public static <E> Builder<E> builder(Set<E> delegate) {
+        return new Builder<>(delegate);
+    }
+
+    public static final class Builder<E> {
+        private final Set<E> delegate;
+        private boolean instrument;
+        private boolean selfMutex;
+        private Object mutex;
+        private SetObserver<? super E> observer;
+
+        private Builder(Set<E> delegate) {
+            this.delegate = Objects.requireNonNull(delegate);
+        }
+
+        /**
+         * 统计尝试添加的次数和实际移除的元素个数
+         */
+        public Builder<E> instrumented() {
+            instrument = true;
+            return this;
+        }
+
+        /**
+         * 所有方法在这个Set对象本身上同步
+         */
+        public Builder<E> withMutex() {
+            selfMutex = true;
+            mutex = null;
+            return this;
+        }
+
+        /**
+         * 所有方法在指定的对象上同步，可以让多个集合共用一个锁
+         */
+        public Builder<E> synchronizedOn(Object mutex) {
+            this.mutex = Objects.requireNonNull(mutex);
+            selfMutex = false;
+            return this;
+        }
+
+        /**
+         * 元素添加、移除成功后以及集合被清空后回调
+         */
+        public Builder<E> observer(SetObserver<? super E> observer) {
+            this.observer = Objects.requireNonNull(observer);
+            return this;
+        }
+
+        public FusedForwardingSet<E> build() {
+            return new FusedForwardingSet<>(this);
+        }
+    }
+
+    /**
+     * 计数和观察者都需要知道具体修改了哪些元素，否则可以直接调用被包装集合的方法
+     */
+    private boolean tracking() {
+        return adds != null || observer != null;
+    }
+
+    /**
+     * 记录一次批量操作的结果：尝试的次数、成功的次数，有观察者时还记录具体的元素
+     */
+    private final class Changes {
+        int attempted;
+        int changed;
+        final List<E> elements = observer == null ? null : new ArrayList<>();
+
+        void record(E e) {
+            changed++;
+            if (elements != null) {
+                elements.add(e);
+            }
+        }
+    }
+
+    /**
+     * @return 同步使用的锁，不同步时返回null
+     */
+    public Object mutex() {
+        return mutex;
+    }
+
+    /**
+     * @return 尝试添加的次数
+     * @throws IllegalStateException 没有开启计数
+     */
+    public long getAddCount() {
+        if (adds == null) {
+            throw new IllegalStateException("Not instrumented");
+        }
+        return adds.sum();
+    }
+
+    /**
+     * @return 实际移除的元素个数
+     * @throws IllegalStateException 没有开启计数
+     */
+    public long getRemoveCount() {
+        if (removes == null) {
+            throw new IllegalStateException("Not instrumented");
+        }
+        return removes.sum();
+    }
+
+    @Override
+    public boolean add(E e) {
+        if (adds != null) {
+            adds.increment();
+        }
+        boolean added;
+        if (mutex != null) {
+            synchronized (mutex) {
+                added = delegate.add(e);
+            }
+        } else {
+            added = delegate.add(e);
+        }
+        if (added && observer != null) {
+            observer.added(e);
+        }
+        return added;
+    }
+
+    /**
+     * 有计数或者观察者时逐个添加，在同一次遍历中统计尝试的次数和实际添加的元素
+     */
+    @Override
+    public boolean addAll(Collection<? extends E> c) {
+        if (!tracking()) {
+            if (mutex != null) {
+                synchronized (mutex) {
+                    return delegate.addAll(c);
+                }
+            }
+            return delegate.addAll(c);
+        }
+        Changes changes = new Changes();
+        if (mutex != null) {
+            synchronized (mutex) {
+                addEach(c, changes);
+            }
+        } else {
+            addEach(c, changes);
+        }
+        if (adds != null) {
+            adds.add(changes.attempted);
+        }
+        if (changes.elements != null) {
+            for (E e : changes.elements) {
+                observer.added(e);
+            }
+        }
+        return changes.changed > 0;
+    }
+
+    private void addEach(Collection<? extends E> c, Changes changes) {
+        for (E e : c) {
+            changes.attempted++;
+            if (delegate.add(e)) {
+                changes.record(e);
+            }
+        }
+    }
+
+    /**
+     * 能从集合中移除说明o与集合中的某个元素相等，可以当作E
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public boolean remove(Object o) {
+        boolean removed;
+        if (mutex != null) {
+            synchronized (mutex) {
+                removed = delegate.remove(o);
+            }
+        } else {
+            removed = delegate.remove(o);
+        }
+        if (removed) {
+            if (removes != null) {
+                removes.increment();
+            }
+            if (observer != null) {
+                observer.removed((E) o);
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        if (!tracking()) {
+            if (mutex != null) {
+                synchronized (mutex) {
+                    return delegate.removeAll(c);
+                }
+            }
+            return delegate.removeAll(c);
+        }
+        Changes changes = new Changes();
+        if (mutex != null) {
+            synchronized (mutex) {
+                removeEach(c, changes);
+            }
+        } else {
+            removeEach(c, changes);
+        }
+        return publishRemoved(changes);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void removeEach(Collection<?> c, Changes changes) {
+        for (Object o : c) {
+            if (delegate.remove(o)) {
+                changes.record((E) o);
+            }
+        }
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        if (!tracking()) {
+            if (mutex != null) {
+                synchronized (mutex) {
+                    return delegate.retainAll(c);
+                }
+            }
+            return delegate.retainAll(c);
+        }
+        Objects.requireNonNull(c);
+        Changes changes = new Changes();
+        if (mutex != null) {
+            synchronized (mutex) {
+                retainEach(c, changes);
+            }
+        } else {
+            retainEach(c, changes);
+        }
+        return publishRemoved(changes);
+    }
+
+    private void retainEach(Collection<?> c, Changes changes) {
+        for (Iterator<E> it = delegate.iterator(); it.hasNext();) {
+            E e = it.next();
+            if (!c.contains(e)) {
+                it.remove();
+                changes.record(e);
+            }
+        }
+    }
+
+    /**
+     * 在锁外计数、通知观察者
+     *
+     * @return 是否移除了元素
+     */
+    private boolean publishRemoved(Changes changes) {
+        if (removes != null) {
+            removes.add(changes.changed);
+        }
+        if (changes.elements != null) {
+            for (E e : changes.elements) {
+                observer.removed(e);
+            }
+        }
+        return changes.changed > 0;
+    }
+
+    /**
+     * 按清空前的元素个数计数
+     */
+    @Override
+    public void clear() {
+        if (!tracking()) {
+            if (mutex != null) {
+                synchronized (mutex) {
+                    delegate.clear();
+                }
+            } else {
+                delegate.clear();
+            }
+            return;
+        }
+        int removed;
+        if (mutex != null) {
+            synchronized (mutex) {
+                removed = delegate.size();
+                delegate.clear();
+            }
+        } else {
+            removed = delegate.size();
+            delegate.clear();
+        }
+        if (removes != null) {
+            removes.add(removed);
+        }
+        if (observer != null && removed > 0) {
+            observer.cleared();
+        }
+    }
+
+    @Override
+    public int size() {
+        if (mutex != null) {
+            synchronized (mutex) {
+                return delegate.size();
+            }
+        }
+        return delegate.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        if (mutex != null) {
+            synchronized (mutex) {
+                return delegate.isEmpty();
+            }
+        }
+        return delegate.isEmpty();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (mutex != null) {
+            synchronized (mutex) {
+                return delegate.contains(o);
+            }
+        }
+        return delegate.contains(o);
+    }
+
+    @Override
+    public boolean containsAll(Collection<?> c) {
+        if (mutex != null) {
+            synchronized (mutex) {
+                return delegate.containsAll(c);
+            }
+        }
+        return delegate.containsAll(c);
+    }
+
+    /**
+     * 有计数或者观察者时包装filter，记录被移除的元素。filter在锁内调用，不要在其中访问这个集合
+     */
+    @Override
+    public boolean removeIf(Predicate<? super E> filter) {
+        Objects.requireNonNull(filter);
+        if (!tracking()) {
+            if (mutex != null) {
+                synchronized (mutex) {
+                    return delegate.removeIf(filter);
+                }
+            }
+            return delegate.removeIf(filter);
+        }
+        Changes changes = new Changes();
+        Predicate<E> recording = e -> {
+            if (filter.test(e)) {
+                changes.record(e);
+                return true;
+            }
+            return false;
+        };
+        if (mutex != null) {
+            synchronized (mutex) {
+                delegate.removeIf(recording);
+            }
+        } else {
+            delegate.removeIf(recording);
+        }
+        return publishRemoved(changes);
+    }
+
+    @Override
+    public void forEach(Consumer<? super E> action) {
+        if (mutex != null) {
+            synchronized (mutex) {
+                delegate.forEach(action);
+            }
+        } else {
+            delegate.forEach(action);
+        }
+    }
+
+    /**
+     * 启用同步时，必须在{@link #mutex()}上同步后再遍历。
+     * 有计数或者观察者时，通过迭代器移除元素同样会计数、通知观察者
+     */
+    @Override
+    public Iterator<E> iterator() {
+        Iterator<E> it = delegate.iterator();
+        if (!tracking()) {
+            return it;
+        }
+        return new Iterator<>() {
+            private E last;
+
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public E next() {
+                return last = it.next();
+            }
+
+            @Override
+            public void remove() {
+                it.remove();
+                if (removes != null) {
+                    removes.increment();
+                }
+                if (observer != null) {
+                    observer.removed(last);
+                }
+            }
+        };
+    }
+
+    /**
+     * 启用同步时，必须在{@link #mutex()}上同步后再使用
+     */
+    @Override
+    public Spliterator<E> spliterator() {
+        return delegate.spliterator();
+    }
+
+    /**
+     * 启用同步时，必须在{@link #mutex()}上同步后再使用
+     */
+    @Override
+    public Stream<E> stream() {
+        return delegate.stream();
+    }
+
+    /**
+     * 启用同步时，必须在{@link #mutex()}上同步后再使用
+     */
+    @Override
+    public Stream<E> parallelStream() {
+        return delegate.parallelStream();
+    }
+
+    @Override
+    public Object[] toArray() {
+        if (mutex != null) {
+            synchronized (mutex) {
+                return delegate.toArray();
+            }
+        }
+        return delegate.toArray();
+    }
+
+    @Override
+    public <T> T[] toArray(T[] a) {
+        if (mutex != null) {
+            synchronized (mutex) {
+                return delegate.toArray(a);
+            }
+        }
+        return delegate.toArray(a);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (mutex != null) {
+            synchronized (mutex) {
+                return delegate.equals(obj);
+            }
+        }
+        return delegate.equals(obj);
+    }
+
+    @Override
+    public int hashCode() {
+        if (mutex != null) {
+            synchronized (mutex) {
+                return delegate.hashCode();
+            }
+        }
+        return delegate.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        if (mutex != null) {
+            synchronized (mutex) {
+                return delegate.toString();
+            }
+        }
+        return delegate.toString();
+    }
+}
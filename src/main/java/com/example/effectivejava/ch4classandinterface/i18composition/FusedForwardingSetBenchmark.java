@@ -0,0 +1,126 @@
+package com.example.effectivejava.ch4classandinterface.i18composition;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ * 对比层层包装的ForwardingSet与{@link FusedForwardingSet}的耗时。
+ *
+ * <p>
+ * 层层包装的版本从外到内依次是{@link InstrumentedSet}、同步、观察者三层，都继承自{@link ForwardingSet}，
+ * ForwardingSet.add中的delegate()和delegate().add(e)调用点会看到多种接收者类型。
+ * 加上以下参数运行可以观察C2的内联决策：
+ * <pre>
+ * -XX:+UnlockDiagnosticVMOptions -XX:+PrintInlining
+ * </pre>
+ * 层层包装的版本中ForwardingSet::delegate会显示为virtual call或no static binding，
+ * FusedForwardingSet.add中对HashSet.add的调用显示为inline (hot)。
+ *
+ * <p>
+ * 每种实现先预热若干轮，再取最后一轮的结果。这只是粗略的对比，需要准确的数据应该使用JMH。
+ *
+ * <p>
+ * 用法：FusedForwardingSetBenchmark [ops]
+ */
+public class FusedForwardingSetBenchmark {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int KEYS = 1 << 16;
+
+    public static void main(String[] args) {
+        int ops = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        LongAdder observed = new LongAdder();
+        Consumer<Integer> observer = e -> observed.increment();
+        for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+            Set<Integer> stacked = new InstrumentedSet<>(new SynchronizedSet<>(new ObservingSet<>(new HashSet<>(), observer)));
+            long stackedElapsed = run(stacked, ops);
+
+            Set<Integer> fused = FusedForwardingSet.builder(new HashSet<Integer>())
+                    .instrumented()
+                    .withMutex()
+                    .observer(observer::accept)
+                    .build();
+            long fusedElapsed = run(fused, ops);
+
+            if (round == WARMUP_ROUNDS) {
+                System.out.printf("stacked %,d ms, fused %,d ms (%,d notifications)%n",
+                        stackedElapsed / 1_000_000, fusedElapsed / 1_000_000, observed.sum());
+            }
+        }
+    }
+
+    private static long run(Set<Integer> set, int ops) {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        long start = System.nanoTime();
+        for (int i = 0; i < ops; i++) {
+            Integer key = rnd.nextInt(KEYS);
+            switch (i & 3) {
+            case 0:
+                set.add(key);
+                break;
+            case 1:
+                set.remove(key);
+                break;
+            default:
+                set.contains(key);
+                break;
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static final class SynchronizedSet<E> extends ForwardingSet<E> {
+        private final Set<E> set;
+
+        SynchronizedSet(Set<E> set) {
+            this.set = set;
+        }
+
+        @Override
+        protected Set<E> delegate() {
+            return set;
+        }
+
+        @Override
+        public synchronized boolean add(E e) {
+            return super.add(e);
+        }
+
+        @Override
+        public synchronized boolean remove(Object o) {
+            return super.remove(o);
+        }
+
+        @Override
+        public synchronized boolean contains(Object o) {
+            return super.contains(o);
+        }
+    }
+
+    private static final class ObservingSet<E> extends ForwardingSet<E> {
+        private final Set<E> set;
+        private final Consumer<? super E> observer;
+
+        ObservingSet(Set<E> set, Consumer<? super E> observer) {
+            this.set = set;
+            this.observer = observer;
+        }
+
+        @Override
+        protected Set<E> delegate() {
+            return set;
+        }
+
+        @Override
+        public boolean add(E e) {
+            boolean added = super.add(e);
+            if (added) {
+                observer.accept(e);
+            }
+            return added;
+        }
+    }
+}
@@ -1,7 +1,15 @@
 package com.example.effectivejava.ch4classandinterface.i18composition;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * 在包的内部使用继承非常安全，一切都在包的维护人员控制下。
@@ -18,13 +26,53 @@ import java.util.Set;
  * ForwardingSet是可重用的转发类，其中的方法称为转发方法，使得它的子类不需要依赖于Set中的实现细节。
  * 即便Set中方法的实现细节发生变化，对InstrumentHashSet完全无感知无影响。
  * 更好的实现可以参考guava中的ForwardingXXX类。
+ * 
+ * 计数器使用{@link LongAdder}：多个线程同时计数时，LongAdder把累加分散到多个单元上，减少了对同一个变量的CAS竞争，
+ * 读取时再把各个单元加起来。普通的int计数器在并发下会丢失更新，超过2<sup>31</sup>还会溢出。
+ * 
+ * 可选地按sampleRate抽样记录每种操作的耗时，抽样的比例越低，对被包装的Set影响越小。
  */
 public final class InstrumentedSet<E> extends ForwardingSet<E> {
+    private static final long NOT_SAMPLED = Long.MIN_VALUE;
+    private static final Operation[] OPERATIONS = Operation.values();
+
     private final Set<E> set;
-    private int addCount = 0;
+    private final int sampleRate;
+    private final LongAdder[] counters = new LongAdder[OPERATIONS.length];
+    private final LongAdder successfulAdds = new LongAdder();
+    /**
+     * 不抽样时为null
+     */
+    private final LatencyHistogram[] latencies;
+
+    public enum Operation {
+        ADD, REMOVE, CONTAINS, ITERATE
+    }
 
     public InstrumentedSet(Set<E> set) {
+        this(set, 0);
+    }
+
+    /**
+     * @param sampleRate 平均每sampleRate次操作记录一次耗时，0表示不记录
+     */
+    public InstrumentedSet(Set<E> set, int sampleRate) {
+        if (sampleRate < 0) {
+            throw new IllegalArgumentException("Illegal sample rate: " + sampleRate);
+        }
         this.set = set;
+        this.sampleRate = sampleRate;
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new LongAdder();
+        }
+        if (sampleRate > 0) {
+            latencies = new LatencyHistogram[OPERATIONS.length];
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i] = new LatencyHistogram();
+            }
+        } else {
+            latencies = null;
+        }
     }
 
     @Override
@@ -32,19 +80,161 @@ public final class InstrumentedSet<E> extends ForwardingSet<E> {
         return set;
     }
 
+    private long startTiming() {
+        if (sampleRate == 0 || ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            return NOT_SAMPLED;
+        }
+        return System.nanoTime();
+    }
+
+    private void record(Operation op, long start) {
+        counters[op.ordinal()].increment();
+        if (start != NOT_SAMPLED) {
+            latencies[op.ordinal()].record(System.nanoTime() - start);
+        }
+    }
+
     @Override
     public boolean add(E e) {
-        addCount++;
-        return super.add(e);
+        long start = startTiming();
+        boolean added = super.add(e);
+        record(Operation.ADD, start);
+        if (added) {
+            successfulAdds.increment();
+        }
+        return added;
     }
 
+    /**
+     * <p>
+     * 批量操作只计数，不记录耗时，否则会混进单个操作的耗时分布中。
+     *
+     * <p>
+     * 尝试添加和实际添加成功的数量都只遍历一次c得到：
+     * 1.被包装的Set和c都是HashSet、LinkedHashSet、TreeSet、ArrayList时，size()是O(1)且准确的，
+     * 这些类本身也不支持并发修改，尝试的数量取c.size()，添加前后size的差就是成功的数量，仍然可以调用它们的addAll。
+     * 2.其他情况不能假设size()是准确、廉价的：被包装的可能是并发集合，其他线程的修改也会计入差值；
+     * c也可能是并发集合，c.size()与遍历到的元素数不一定相同，甚至需要再遍历一次（比如ConcurrentLinkedQueue）。
+     * 所以改为逐个调用被包装集合的add，在同一次遍历中统计尝试的次数和返回true的次数，最后各累加一次。
+     */
     @Override
     public boolean addAll(Collection<? extends E> c) {
-        addCount += c.size();
-        return super.addAll(c);
+        if (hasExactSize(set) && hasExactSize(c)) {
+            counters[Operation.ADD.ordinal()].add(c.size());
+            int before = set.size();
+            boolean changed = super.addAll(c);
+            successfulAdds.add(set.size() - before);
+            return changed;
+        }
+        int attempted = 0;
+        int added = 0;
+        for (E e : c) {
+            attempted++;
+            if (set.add(e)) {
+                added++;
+            }
+        }
+        counters[Operation.ADD.ordinal()].add(attempted);
+        successfulAdds.add(added);
+        return added > 0;
+    }
+
+    /**
+     * 只比较具体的类，子类可能覆盖size()
+     */
+    private static boolean hasExactSize(Collection<?> c) {
+        Class<?> type = c.getClass();
+        return type == HashSet.class || type == LinkedHashSet.class || type == TreeSet.class
+                || type == ArrayList.class;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        long start = startTiming();
+        boolean removed = super.remove(o);
+        record(Operation.REMOVE, start);
+        return removed;
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        counters[Operation.REMOVE.ordinal()].add(c.size());
+        return super.removeAll(c);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        long start = startTiming();
+        boolean contains = super.contains(o);
+        record(Operation.CONTAINS, start);
+        return contains;
+    }
+
+    @Override
+    public boolean containsAll(Collection<?> c) {
+        counters[Operation.CONTAINS.ordinal()].add(c.size());
+        return super.containsAll(c);
+    }
+
+    /**
+     * 只统计开始遍历的次数，耗时是创建迭代器的耗时
+     */
+    @Override
+    public Iterator<E> iterator() {
+        long start = startTiming();
+        Iterator<E> it = super.iterator();
+        record(Operation.ITERATE, start);
+        return it;
+    }
+
+    /**
+     * @return 尝试添加的次数，包括元素已经存在的情况
+     */
+    public long getAddCount() {
+        return count(Operation.ADD);
+    }
+
+    /**
+     * @return 实际添加成功的次数
+     */
+    public long getSuccessfulAddCount() {
+        return successfulAdds.sum();
+    }
+
+    public long count(Operation op) {
+        return counters[op.ordinal()].sum();
+    }
+
+    /**
+     * @throws IllegalStateException 没有开启耗时抽样
+     */
+    public LatencyHistogram.Snapshot latency(Operation op) {
+        if (latencies == null) {
+            throw new IllegalStateException("Latency sampling disabled");
+        }
+        return latencies[op.ordinal()].snapshot();
     }
 
-    public int getAddCount() {
-        return addCount;
+    public static void main(String[] args) throws InterruptedException {
+        InstrumentedSet<Integer> set = new InstrumentedSet<>(ConcurrentHashMap.newKeySet(), 64);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                for (int i = 0; i < 1_000_000; i++) {
+                    int key = rnd.nextInt(100_000);
+                    if (!set.contains(key)) {
+                        set.add(key);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (Operation op : new Operation[] { Operation.ADD, Operation.CONTAINS }) {
+            System.out.printf("%-8s %,d  %s%n", op, set.count(op), set.latency(op));
+        }
     }
 }
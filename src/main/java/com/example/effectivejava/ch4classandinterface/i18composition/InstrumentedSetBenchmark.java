@@ -0,0 +1,52 @@
+package com.example.effectivejava.ch4classandinterface.i18composition;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * 对比{@link InstrumentedSet#addAll}的批量路径与逐个调用{@link InstrumentedSet#add}的耗时。
+ *
+ * 输入中一半的元素是重复的，两种方式得到的成功次数应该相同。
+ * 每种组合先预热若干轮，再取最后一轮的结果。这只是粗略的对比，需要准确的数据应该使用JMH。
+ *
+ * 用法：InstrumentedSetBenchmark [n]
+ */
+public class InstrumentedSetBenchmark {
+    private static final int WARMUP_ROUNDS = 5;
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        List<Integer> input = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            input.add(i / 2);
+        }
+        run("HashSet", HashSet::new, input);
+        run("ConcurrentHashMap.newKeySet", ConcurrentHashMap::newKeySet, input);
+    }
+
+    private static void run(String name, Supplier<Set<Integer>> factory, List<Integer> input) {
+        for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+            InstrumentedSet<Integer> bulk = new InstrumentedSet<>(factory.get());
+            long start = System.nanoTime();
+            bulk.addAll(input);
+            long bulkElapsed = System.nanoTime() - start;
+
+            InstrumentedSet<Integer> elementWise = new InstrumentedSet<>(factory.get());
+            start = System.nanoTime();
+            for (Integer e : input) {
+                elementWise.add(e);
+            }
+            long elementWiseElapsed = System.nanoTime() - start;
+
+            if (round == WARMUP_ROUNDS) {
+                System.out.printf("%-28s addAll %,d ms (%,d/%,d), add %,d ms (%,d/%,d)%n", name,
+                        bulkElapsed / 1_000_000, bulk.getSuccessfulAddCount(), bulk.getAddCount(),
+                        elementWiseElapsed / 1_000_000, elementWise.getSuccessfulAddCount(), elementWise.getAddCount());
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.effectivejava.ch4classandinterface.i18composition;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * <p>
+ * 线程安全的HDR风格延迟直方图：按2的幂分段，每段再线性地分成16个子区间，相对误差不超过1/16。
+ *
+ * <p>
+ * 记录时只对一个计数器做原子加，不加锁。{@link #snapshot()}逐个读取计数器，不需要暂停记录的线程，
+ * 代价是快照中的各个区间不是在同一时刻读取的，对统计延迟分布来说可以接受。
+ *
+ * <p>
+ * 其他示例中的延迟测量（如{@code HashTableLatencyBenchmark}）也使用这个类，分段的计算只保留这一份。
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        counts.incrementAndGet(indexOf(value));
+        max.accumulate(value);
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> exponent) - SUB_BUCKETS;
+        return (exponent + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return 下标对应区间的上界
+     */
+    private static long upperBoundOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS - 1;
+        long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << exponent) - 1;
+    }
+
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            total += copy[i];
+        }
+        return new Snapshot(copy, total, max.get());
+    }
+
+    /**
+     * 某一时刻的直方图，不可变
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long total;
+        private final long max;
+
+        private Snapshot(long[] counts, long total, long max) {
+            this.counts = counts;
+            this.total = total;
+            this.max = max;
+        }
+
+        public long count() {
+            return total;
+        }
+
+        public long max() {
+            return max;
+        }
+
+        /**
+         * @param p 百分位，0到100之间
+         */
+        public long percentile(double p) {
+            if (p < 0 || p > 100) {
+                throw new IllegalArgumentException("Illegal percentile: " + p);
+            }
+            long threshold = Math.max(1, (long) Math.ceil(total * p / 100));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= threshold) {
+                    return Math.min(upperBoundOf(i), max);
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%,d p50=%,dns p99=%,dns p99.9=%,dns max=%,dns",
+                    total, percentile(50), percentile(99), percentile(99.9), max);
+        }
+    }
+}
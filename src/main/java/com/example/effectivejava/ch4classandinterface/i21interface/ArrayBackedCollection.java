@@ -0,0 +1,128 @@
+package com.example.effectivejava.ch4classandinterface.i21interface;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+/**
+ * <p>
+ * 基于连续数组的Collection实现，不是线程安全的，需要时使用{@link SynchronizedCollection}或{@link StampedCollection}装饰。
+ *
+ * <p>
+ * 与java.util.ArrayList相比，去掉了modCount等这个接口用不到的簿记，get只做一次下标检查。
+ * 批量操作都只移动一次数组：
+ * 1.removeIf：先用位图标记所有要移除的元素，再一次遍历把保留的元素向前紧凑。
+ * 先标记再修改，filter抛出异常时集合保持不变。
+ * 2.removeRange：一次System.arraycopy把后面的元素整体前移。
+ * 3.addAll：来源是java.util.Collection时，与ArrayList相同，先转为数组，再一次扩容、一次拷贝。
+ *
+ * <p>
+ * 中间位置的remove(int)仍然需要移动后面所有的元素，是O(n)的，频繁按位置删除时考虑{@link TieredVectorCollection}。
+ */
+public class ArrayBackedCollection<E> implements Collection<E> {
+    private static final int DEFAULT_CAPACITY = 10;
+    private static final Object[] EMPTY = {};
+
+    private Object[] elements;
+    private int size;
+
+    public ArrayBackedCollection() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ArrayBackedCollection(int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Illegal capacity: " + initialCapacity);
+        }
+        elements = initialCapacity == 0 ? EMPTY : new Object[initialCapacity];
+    }
+
+    @Override
+    public void add(E e) {
+        if (size == elements.length) {
+            grow(size + 1);
+        }
+        elements[size++] = e;
+    }
+
+    private void grow(int minCapacity) {
+        int newCapacity = Math.max(minCapacity, elements.length + (elements.length >> 1));
+        elements = Arrays.copyOf(elements, Math.max(newCapacity, DEFAULT_CAPACITY));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public E get(int i) {
+        Objects.checkIndex(i, size);
+        return (E) elements[i];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void remove(int i) {
+        Objects.checkIndex(i, size);
+        int moved = size - i - 1;
+        if (moved > 0) {
+            System.arraycopy(elements, i + 1, elements, i, moved);
+        }
+        elements[--size] = null; // 清空过期引用
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void removeIf(Predicate<E> filter) {
+        Objects.requireNonNull(filter);
+        long[] marks = null;
+        int first = -1;
+        for (int i = 0; i < size; i++) {
+            if (filter.test((E) elements[i])) {
+                if (marks == null) {
+                    marks = new long[(size + 63) >>> 6];
+                    first = i;
+                }
+                marks[i >>> 6] |= 1L << i;
+            }
+        }
+        if (marks == null) {
+            return;
+        }
+        // 第一个要移除的元素之前的元素位置不变
+        int w = first;
+        for (int r = first + 1; r < size; r++) {
+            if ((marks[r >>> 6] & (1L << r)) == 0) {
+                elements[w++] = elements[r];
+            }
+        }
+        Arrays.fill(elements, w, size, null);
+        size = w;
+    }
+
+    @Override
+    public void removeRange(int from, int to) {
+        Objects.checkFromToIndex(from, to, size);
+        System.arraycopy(elements, to, elements, from, size - to);
+        int newSize = size - (to - from);
+        Arrays.fill(elements, newSize, size, null);
+        size = newSize;
+    }
+
+    @Override
+    public void addAll(Iterable<? extends E> src) {
+        if (src instanceof java.util.Collection) {
+            Object[] a = ((java.util.Collection<?>) src).toArray();
+            if (size + a.length > elements.length) {
+                grow(size + a.length);
+            }
+            System.arraycopy(a, 0, elements, size, a.length);
+            size += a.length;
+            return;
+        }
+        for (E e : src) {
+            add(e);
+        }
+    }
+}
@@ -17,12 +17,34 @@ public interface Collection<E> {
      * 比如此处增加了一个非线程安全的removeIf方法，
      * SynchronizedCollection的实现者不知道这一变化，并没有重写removeIf方法，
      * 就破坏了SynchronizedCollection类所有方法线程安全的承诺。
+     * 
+     * 从后向前遍历，移除一个元素后，前面还没有检查的元素下标不变，不会漏掉元素。
+     * 缺省实现只能逐个remove，对于基于数组的实现是O(n<sup>2</sup>)的，实现类应该重写为一次遍历完成的版本。
      */
     default void removeIf(Predicate<E> filter) {
-        for (int i = 0, size = size(); i < size; i++) {
+        for (int i = size() - 1; i >= 0; i--) {
             if (filter.test(get(i))) {
                 remove(i);
             }
         }
     }
+
+    default void addAll(Iterable<? extends E> src) {
+        for (E e : src) {
+            add(e);
+        }
+    }
+
+    /**
+     * 移除[from, to)范围内的元素。
+     * 缺省实现从后向前逐个remove，基于数组的实现应该重写为只移动一次后面的元素。
+     */
+    default void removeRange(int from, int to) {
+        if (from < 0 || to > size() || from > to) {
+            throw new IndexOutOfBoundsException("from: " + from + ", to: " + to + ", size: " + size());
+        }
+        for (int i = to - 1; i >= from; i--) {
+            remove(i);
+        }
+    }
 }
@@ -0,0 +1,137 @@
+package com.example.effectivejava.ch4classandinterface.i21interface;
+
+import java.util.Objects;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Predicate;
+
+/**
+ * <p>
+ * 使用{@link StampedLock}实现的线程安全Collection。
+ *
+ * <p>
+ * {@link SynchronizedCollection}的所有方法都在同一个监视器上互斥，即使读操作之间也不能并发，
+ * 读多写少时，线程越多争用越严重。本类：
+ * 1.读操作先进行乐观读：不加锁直接读取，读完后再检查期间是否有写操作，没有的话结果就是有效的。
+ * 乐观读只读取锁的状态，不写任何共享变量，读线程之间不会相互影响。
+ * 2.乐观读失败（期间发生了写操作）时，退回到读锁，读锁之间仍然可以并发。
+ * 3.写操作获取独占的写锁。
+ *
+ * <p>
+ * 乐观读期间，被装饰的集合可能正在被修改，读到的可能是不一致的中间状态，甚至会抛出异常（比如数组下标越界）。
+ * 所以读到的结果和异常都要在检查通过之后才能使用，检查失败就丢弃，改用读锁重新读取。
+ * 这要求被装饰集合的读操作没有副作用，并且在不一致的状态下也能结束，基于数组的简单实现都满足这个条件。
+ *
+ * <p>
+ * 与{@link SynchronizedCollection}的性能对比见{@link StampedCollectionBenchmark}。
+ */
+public class StampedCollection<E> implements Collection<E> {
+    private final Collection<E> c;
+    private final StampedLock lock = new StampedLock();
+
+    public static <E> StampedCollection<E> stampedCollection(Collection<E> c) {
+        return new StampedCollection<>(c);
+    }
+
+    public StampedCollection(Collection<E> c) {
+        this.c = Objects.requireNonNull(c);
+    }
+
+    private Collection<E> decorated() {
+        return c;
+    }
+
+    @Override
+    public void add(E e) {
+        long stamp = lock.writeLock();
+        try {
+            decorated().add(e);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public E get(int i) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                E e = decorated().get(i);
+                if (lock.validate(stamp)) {
+                    return e;
+                }
+            } catch (RuntimeException ex) {
+                // 检查通过说明读取期间没有写操作，异常是真实的，比如下标确实越界了
+                if (lock.validate(stamp)) {
+                    throw ex;
+                }
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return decorated().get(i);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public int size() {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            int size = decorated().size();
+            if (lock.validate(stamp)) {
+                return size;
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return decorated().size();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void remove(int i) {
+        long stamp = lock.writeLock();
+        try {
+            decorated().remove(i);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * 缺省的removeIf由多次get、remove组成，不是原子的，必须重写。
+     * 注意filter是外来方法，在持有写锁时调用，不要在其中访问这个集合。
+     */
+    @Override
+    public void removeIf(Predicate<E> filter) {
+        long stamp = lock.writeLock();
+        try {
+            decorated().removeIf(filter);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void addAll(Iterable<? extends E> src) {
+        long stamp = lock.writeLock();
+        try {
+            decorated().addAll(src);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void removeRange(int from, int to) {
+        long stamp = lock.writeLock();
+        try {
+            decorated().removeRange(from, to);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+}
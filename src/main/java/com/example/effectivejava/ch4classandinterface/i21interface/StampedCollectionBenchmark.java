@@ -0,0 +1,82 @@
+package com.example.effectivejava.ch4classandinterface.i21interface;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 在不同的读写比例下，对比{@link SynchronizedCollection}和{@link StampedCollection}的吞吐量。
+ *
+ * 每个线程执行固定次数的操作，按比例随机选择读（get）或写（add后紧跟remove(0)，集合大小保持不变）。
+ * 每种组合先预热若干轮，再取最后一轮的结果。这只是粗略的对比，需要准确的数据应该使用JMH。
+ * 线程数不超过CPU核数时结果才有意义。
+ *
+ * 用法：StampedCollectionBenchmark [threads] [opsPerThread]
+ */
+public class StampedCollectionBenchmark {
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int SIZE = 1024;
+    private static final int[] READ_PERCENTS = { 50, 90, 95, 99, 100 };
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int ops = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        System.out.printf("%d threads, %,d ops per thread%n", threads, ops);
+        for (int readPercent : READ_PERCENTS) {
+            run("synchronized", readPercent, threads, ops, SynchronizedCollection::new);
+            run("stamped", readPercent, threads, ops, StampedCollection::new);
+        }
+    }
+
+    private static void run(String name, int readPercent, int threads, int ops,
+            Function<Collection<Integer>, Collection<Integer>> decorator) throws InterruptedException {
+        for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+            Collection<Integer> c = decorator.apply(new ArrayBackedCollection<>());
+            for (int i = 0; i < SIZE; i++) {
+                c.add(i);
+            }
+            CountDownLatch start = new CountDownLatch(1);
+            CountDownLatch done = new CountDownLatch(threads);
+            LongAdder checksum = new LongAdder();
+            for (int t = 0; t < threads; t++) {
+                new Thread(() -> {
+                    try {
+                        start.await();
+                        checksum.add(workload(c, readPercent, ops));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }).start();
+            }
+            long begin = System.nanoTime();
+            start.countDown();
+            done.await();
+            long elapsed = System.nanoTime() - begin;
+            if (round == WARMUP_ROUNDS) {
+                // 打印读到的元素之和，读操作的结果被使用，不会被当作死代码消除
+                System.out.printf("%3d%% reads %-13s %,12d ops/s (checksum %d)%n",
+                        readPercent, name, (long) threads * ops * 1_000_000_000L / elapsed, checksum.sum());
+            }
+        }
+    }
+
+    /**
+     * @return 读到的元素之和
+     */
+    private static long workload(Collection<Integer> c, int readPercent, int ops) {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        long sum = 0;
+        for (int i = 0; i < ops; i++) {
+            if (rnd.nextInt(100) < readPercent) {
+                sum += c.get(rnd.nextInt(SIZE));
+            } else {
+                c.add(i);
+                c.remove(0);
+            }
+        }
+        return sum;
+    }
+}
@@ -1,6 +1,7 @@
 package com.example.effectivejava.ch4classandinterface.i21interface;
 
 import java.util.Objects;
+import java.util.function.Predicate;
 
 /**
  * 承诺实现一个所有方法线程安全的Collection
@@ -13,6 +14,9 @@ import java.util.Objects;
  * 但是在修改接口时，除非特殊需要，建议尽量避免利用缺省方法在接口上添加新方法，如果这样做需要慎重考虑是否会破坏已有实现类。
  * 
  * 在编写接口、类的可重写成员时都要非常慎重的考虑，在未来这些成员是否会被修改、删除，或者增加新的成员，这些修改是否会破坏既有实现类。
+ * 
+ * 发现问题后，这里重写了removeIf以及之后新增的addAll、removeRange，在一次加锁中完成整个批量操作，
+ * 既恢复了线程安全的承诺，批量修改也只需要获取一次锁。
  */
 public class SynchronizedCollection<E> implements Collection<E> {
     private final Collection<E> c;
@@ -58,4 +62,25 @@ public class SynchronizedCollection<E> implements Collection<E> {
             decorated().remove(i);
         }
     }
+
+    @Override
+    public void removeIf(Predicate<E> filter) {
+        synchronized (mutex) {
+            decorated().removeIf(filter);
+        }
+    }
+
+    @Override
+    public void addAll(Iterable<? extends E> src) {
+        synchronized (mutex) {
+            decorated().addAll(src);
+        }
+    }
+
+    @Override
+    public void removeRange(int from, int to) {
+        synchronized (mutex) {
+            decorated().removeRange(from, to);
+        }
+    }
 }
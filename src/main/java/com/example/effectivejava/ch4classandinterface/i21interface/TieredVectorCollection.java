@@ -0,0 +1,248 @@
+package com.example.effectivejava.ch4classandinterface.i21interface;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+
+/**
+ * <p>
+ * 分块的Collection实现（tiered vector），不是线程安全的。
+ *
+ * <p>
+ * 元素按顺序保存在若干个容量为k的块中，除最后一块外每块都是满的，所以第i个元素在第i/k块的第i%k个位置，get仍然是O(1)。
+ * 每个块是一个循环数组，在块的头尾增删元素都是O(1)的。
+ *
+ * <p>
+ * 删除中间的元素时：
+ * 1.在所在的块内移动元素，只移动离块头、块尾较近的一侧，最多k/2个。
+ * 2.之后的每个块把自己的第一个元素移到前一块的末尾，每块O(1)，共n/k块。
+ * 总开销是O(k + n/k)，k取√n左右时为O(√n)。{@link ArrayBackedCollection}需要移动后面所有的元素，是O(n)的。
+ *
+ * <p>
+ * 块的容量k是2的幂，元素数超过2k<sup>2</sup>时k翻倍，重新分块一次，均摊到每次add是O(1)的。
+ * 元素减少时k不会缩小。
+ *
+ * <p>
+ * removeIf、removeRange都是一次遍历把保留的元素向前紧凑，是O(n)的。
+ */
+public class TieredVectorCollection<E> implements Collection<E> {
+    private static final int MIN_CHUNK_SHIFT = 4;
+    private static final int MAX_CHUNK_SHIFT = 15;
+
+    private int shift = MIN_CHUNK_SHIFT;
+    private Chunk[] chunks = new Chunk[4];
+    private int chunkCount;
+    private int size;
+
+    /**
+     * 循环数组，容量是2的幂
+     */
+    private static final class Chunk {
+        final Object[] data;
+        final int mask;
+        int head;
+        int size;
+
+        Chunk(int capacity) {
+            data = new Object[capacity];
+            mask = capacity - 1;
+        }
+
+        Object get(int offset) {
+            return data[(head + offset) & mask];
+        }
+
+        void set(int offset, Object e) {
+            data[(head + offset) & mask] = e;
+        }
+
+        void addLast(Object e) {
+            data[(head + size) & mask] = e;
+            size++;
+        }
+
+        Object removeFirst() {
+            Object e = data[head];
+            data[head] = null;
+            head = (head + 1) & mask;
+            size--;
+            return e;
+        }
+
+        /**
+         * 移动较短的一侧来填补空位
+         */
+        void remove(int offset) {
+            if (offset < size >>> 1) {
+                for (int i = offset; i > 0; i--) {
+                    set(i, get(i - 1));
+                }
+                data[head] = null;
+                head = (head + 1) & mask;
+            } else {
+                for (int i = offset; i < size - 1; i++) {
+                    set(i, get(i + 1));
+                }
+                set(size - 1, null);
+            }
+            size--;
+        }
+    }
+
+    @Override
+    public void add(E e) {
+        if (size == chunkCount << shift && shift < MAX_CHUNK_SHIFT && size >= 2 << (shift << 1)) {
+            rebuild(shift + 1);
+        }
+        Chunk last = chunkCount == 0 ? null : chunks[chunkCount - 1];
+        if (last == null || last.size == last.data.length) {
+            last = newChunk();
+        }
+        last.addLast(e);
+        size++;
+    }
+
+    private Chunk newChunk() {
+        if (chunkCount == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunkCount * 2);
+        }
+        Chunk chunk = new Chunk(1 << shift);
+        chunks[chunkCount++] = chunk;
+        return chunk;
+    }
+
+    /**
+     * 按新的块容量重新分块
+     */
+    private void rebuild(int newShift) {
+        Chunk[] old = chunks;
+        int oldCount = chunkCount;
+        shift = newShift;
+        chunks = new Chunk[Math.max(4, (size >>> newShift) + 1)];
+        chunkCount = 0;
+        for (int c = 0; c < oldCount; c++) {
+            Chunk chunk = old[c];
+            for (int j = 0; j < chunk.size; j++) {
+                Chunk last = chunkCount == 0 ? null : chunks[chunkCount - 1];
+                if (last == null || last.size == last.data.length) {
+                    last = newChunk();
+                }
+                last.addLast(chunk.get(j));
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public E get(int i) {
+        Objects.checkIndex(i, size);
+        return (E) chunks[i >>> shift].get(i & ((1 << shift) - 1));
+    }
+
+    private void set(int i, Object e) {
+        chunks[i >>> shift].set(i & ((1 << shift) - 1), e);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void remove(int i) {
+        Objects.checkIndex(i, size);
+        int c = i >>> shift;
+        chunks[c].remove(i & ((1 << shift) - 1));
+        for (int j = c + 1; j < chunkCount; j++) {
+            chunks[j - 1].addLast(chunks[j].removeFirst());
+        }
+        if (chunks[chunkCount - 1].size == 0) {
+            chunks[--chunkCount] = null;
+        }
+        size--;
+    }
+
+    @Override
+    public void removeIf(Predicate<E> filter) {
+        Objects.requireNonNull(filter);
+        long[] marks = null;
+        int first = -1;
+        for (int i = 0; i < size; i++) {
+            if (filter.test(get(i))) {
+                if (marks == null) {
+                    marks = new long[(size + 63) >>> 6];
+                    first = i;
+                }
+                marks[i >>> 6] |= 1L << i;
+            }
+        }
+        if (marks == null) {
+            return;
+        }
+        int w = first;
+        for (int r = first + 1; r < size; r++) {
+            if ((marks[r >>> 6] & (1L << r)) == 0) {
+                set(w++, get(r));
+            }
+        }
+        truncate(w);
+    }
+
+    @Override
+    public void removeRange(int from, int to) {
+        Objects.checkFromToIndex(from, to, size);
+        if (from == to) {
+            return;
+        }
+        int w = from;
+        for (int r = to; r < size; r++) {
+            set(w++, get(r));
+        }
+        truncate(w);
+    }
+
+    /**
+     * 丢弃newSize之后的元素，清空过期引用
+     */
+    private void truncate(int newSize) {
+        int newChunkCount = (newSize + (1 << shift) - 1) >>> shift;
+        for (int c = newChunkCount; c < chunkCount; c++) {
+            chunks[c] = null;
+        }
+        chunkCount = newChunkCount;
+        if (newChunkCount > 0) {
+            Chunk last = chunks[newChunkCount - 1];
+            int lastSize = newSize - ((newChunkCount - 1) << shift);
+            for (int j = lastSize; j < last.size; j++) {
+                last.set(j, null);
+            }
+            last.size = lastSize;
+        }
+        size = newSize;
+    }
+
+    /**
+     * 从大列表中随机位置逐个删除，对比{@link ArrayBackedCollection}
+     */
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int removals = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        for (int round = 0; round < 3; round++) {
+            System.out.printf("ArrayBackedCollection  %,d ms%n", removeRandom(new ArrayBackedCollection<>(), n, removals));
+            System.out.printf("TieredVectorCollection %,d ms%n", removeRandom(new TieredVectorCollection<>(), n, removals));
+        }
+    }
+
+    private static long removeRandom(Collection<Integer> c, int n, int removals) {
+        for (int i = 0; i < n; i++) {
+            c.add(i);
+        }
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        long start = System.nanoTime();
+        for (int i = 0; i < removals; i++) {
+            c.remove(rnd.nextInt(c.size()));
+        }
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+}
@@ -3,9 +3,11 @@ package com.example.effectivejava.ch5generic.i28genericlistorarray;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Objects;
 import java.util.Random;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.IntFunction;
+import java.util.function.ToDoubleFunction;
 
 /**
  * 泛型 - 列表和数组
@@ -86,6 +88,21 @@ public class ArrayCollection {
             Random rnd = ThreadLocalRandom.current();
             return choiceArray[rnd.nextInt(choiceArray.length)];
         }
+
+        /**
+         * 有放回地选择n个元素，写入dst的前n个位置。
+         * 批量选择只获取一次随机数生成器，并且不分配任何对象，适合大量采样的场景。
+         */
+        public void choose(int n, E[] dst) {
+            Sampling.withReplacement(i -> choiceArray[i], choiceArray.length, n, dst);
+        }
+
+        /**
+         * 无放回地选择n个不同位置的元素，写入dst的前n个位置
+         */
+        public void chooseDistinct(int n, E[] dst) {
+            Sampling.withoutReplacement(i -> choiceArray[i], choiceArray.length, n, dst);
+        }
     }
 
     /**
@@ -132,6 +149,19 @@ public class ArrayCollection {
             E result = (E) choiceArray[rnd.nextInt(choiceArray.length)];
             return result;
         }
+
+        public void choose(int n, E[] dst) {
+            Sampling.withReplacement(this::elementAt, choiceArray.length, n, dst);
+        }
+
+        public void chooseDistinct(int n, E[] dst) {
+            Sampling.withoutReplacement(this::elementAt, choiceArray.length, n, dst);
+        }
+
+        @SuppressWarnings("unchecked")
+        private E elementAt(int i) {
+            return (E) choiceArray[i];
+        }
     }
 
     /**
@@ -153,6 +183,239 @@ public class ArrayCollection {
             Random rnd = ThreadLocalRandom.current();
             return choiceList.get(rnd.nextInt(choiceList.size()));
         }
+
+        public void choose(int n, E[] dst) {
+            Sampling.withReplacement(choiceList::get, choiceList.size(), n, dst);
+        }
+
+        public void chooseDistinct(int n, E[] dst) {
+            Sampling.withoutReplacement(choiceList::get, choiceList.size(), n, dst);
+        }
+    }
+
+    /**
+     * 按权重选择的朴素实现：每次选择都顺序扫描一遍权重，O(n)。
+     * 作为{@link WeightedChooserAliasImpl}和{@link WeightedChooserFenwickImpl}的性能对比基准。
+     */
+    public static class WeightedChooserLinearImpl<E> {
+        private final List<E> choiceList;
+        private final double[] weights;
+        private final double total;
+
+        public WeightedChooserLinearImpl(Collection<? extends E> choices, ToDoubleFunction<? super E> weigher) {
+            choiceList = new ArrayList<>(choices);
+            weights = weightsOf(choiceList, weigher);
+            total = sum(weights);
+        }
+
+        public E choose() {
+            Random rnd = ThreadLocalRandom.current();
+            double target = rnd.nextDouble() * total;
+            for (int i = 0; i < weights.length; i++) {
+                target -= weights[i];
+                if (target < 0) {
+                    return choiceList.get(i);
+                }
+            }
+            // 浮点误差可能导致扫描完仍未命中，返回最后一个权重为正的元素
+            for (int i = weights.length - 1;; i--) {
+                if (weights[i] > 0) {
+                    return choiceList.get(i);
+                }
+            }
+        }
+    }
+
+    /**
+     * 使用Vose的别名方法（alias method）按权重选择，O(n)构建后每次选择都是O(1)。
+     * 
+     * 把每个元素的权重缩放到平均值为1，权重小于1的元素用一个权重大于1的元素（别名）把自己的格子补满到1，
+     * 这样就得到n个高度都为1的格子，每个格子最多包含两个元素。
+     * 选择时先均匀地选一个格子，再抛一次硬币决定取格子的主人还是它的别名。
+     * 
+     * 权重不可变，需要动态调整权重时使用{@link WeightedChooserFenwickImpl}。
+     */
+    public static class WeightedChooserAliasImpl<E> {
+        private final List<E> choiceList;
+        private final double[] probability;
+        private final int[] alias;
+
+        public WeightedChooserAliasImpl(Collection<? extends E> choices, ToDoubleFunction<? super E> weigher) {
+            choiceList = new ArrayList<>(choices);
+            double[] weights = weightsOf(choiceList, weigher);
+            double total = sum(weights);
+            int n = weights.length;
+            probability = new double[n];
+            alias = new int[n];
+
+            // 两个工作栈共用一个数组，small从头部向后增长，large从尾部向前增长
+            int[] work = new int[n];
+            int small = 0;
+            int large = n;
+            double[] scaled = new double[n];
+            for (int i = 0; i < n; i++) {
+                scaled[i] = weights[i] * n / total;
+                if (scaled[i] < 1) {
+                    work[small++] = i;
+                } else {
+                    work[--large] = i;
+                }
+            }
+            while (small > 0 && large < n) {
+                int less = work[--small];
+                int more = work[large++];
+                probability[less] = scaled[less];
+                alias[less] = more;
+                scaled[more] = scaled[more] + scaled[less] - 1;
+                if (scaled[more] < 1) {
+                    work[small++] = more;
+                } else {
+                    work[--large] = more;
+                }
+            }
+            // 剩下的格子理论上都正好是1，浮点误差会让少量格子留在small中
+            while (large < n) {
+                probability[work[large++]] = 1;
+            }
+            while (small > 0) {
+                probability[work[--small]] = 1;
+            }
+        }
+
+        public E choose() {
+            Random rnd = ThreadLocalRandom.current();
+            int i = rnd.nextInt(probability.length);
+            return choiceList.get(rnd.nextDouble() < probability[i] ? i : alias[i]);
+        }
+    }
+
+    /**
+     * 使用树状数组（Fenwick tree，binary indexed tree）按权重选择，
+     * 选择和修改单个权重都是O(log n)，适合权重需要随时调整的场景，比如根据后端的健康状况调整负载均衡权重。
+     * 
+     * tree[i]保存区间(i - lowbit(i), i]的权重之和（下标从1开始），
+     * 选择时从最高位开始二分下降，找到前缀和刚好超过随机目标值的位置。
+     * 
+     * 本类不是线程安全的，并发修改权重需要外部同步。
+     */
+    public static class WeightedChooserFenwickImpl<E> {
+        private final List<E> choiceList;
+        private final double[] weights;
+        private final double[] tree;
+        /**
+         * 权重为正的元素个数，用整数精确地判断总权重是否为正，不受浮点误差影响
+         */
+        private int positive;
+
+        public WeightedChooserFenwickImpl(Collection<? extends E> choices, ToDoubleFunction<? super E> weigher) {
+            choiceList = new ArrayList<>(choices);
+            weights = weightsOf(choiceList, weigher);
+            for (double w : weights) {
+                if (w > 0) {
+                    positive++;
+                }
+            }
+            int n = weights.length;
+            tree = new double[n + 1];
+            // O(n)建树：每个节点把自己的和累加到父节点
+            for (int i = 1; i <= n; i++) {
+                tree[i] += weights[i - 1];
+                int parent = i + (i & -i);
+                if (parent <= n) {
+                    tree[parent] += tree[i];
+                }
+            }
+        }
+
+        /**
+         * 先检查新的权重以及修改后是否还有权重为正的元素，都合法时才修改，抛出异常时状态不变
+         *
+         * @param index 元素在构造时传入集合中的迭代顺序
+         */
+        public void setWeight(int index, double weight) {
+            Objects.checkIndex(index, weights.length);
+            checkWeight(weight);
+            int newPositive = positive - (weights[index] > 0 ? 1 : 0) + (weight > 0 ? 1 : 0);
+            if (newPositive == 0) {
+                throw new IllegalArgumentException("Total weight must be positive");
+            }
+            double delta = weight - weights[index];
+            weights[index] = weight;
+            positive = newPositive;
+            for (int i = index + 1; i < tree.length; i += i & -i) {
+                tree[i] += delta;
+            }
+        }
+
+        /**
+         * 总权重直接从树中求前缀和，不单独维护一个逐次累加的总数，
+         * 否则浮点误差会让它与树中的前缀和不一致，随机目标值可能超出树能覆盖的范围
+         */
+        private double total() {
+            double sum = 0;
+            for (int i = weights.length; i > 0; i -= i & -i) {
+                sum += tree[i];
+            }
+            return sum;
+        }
+
+        public double weight(int index) {
+            return weights[index];
+        }
+
+        public E choose() {
+            Random rnd = ThreadLocalRandom.current();
+            double target = rnd.nextDouble() * total();
+            int pos = 0;
+            for (int step = Integer.highestOneBit(weights.length); step > 0; step >>= 1) {
+                int next = pos + step;
+                if (next < tree.length && tree[next] <= target) {
+                    pos = next;
+                    target -= tree[next];
+                }
+            }
+            // pos是前缀和不超过target的元素个数，也就是被选中元素的下标。
+            // 浮点误差可能让它越界或者落在权重为0的元素上，与线性实现相同，改为向前找最近的权重为正的元素
+            for (int i = Math.min(pos, weights.length - 1); i >= 0; i--) {
+                if (weights[i] > 0) {
+                    return choiceList.get(i);
+                }
+            }
+            for (int i = pos + 1;; i++) {
+                if (weights[i] > 0) {
+                    return choiceList.get(i);
+                }
+            }
+        }
+    }
+
+    private static <E> double[] weightsOf(List<E> choices, ToDoubleFunction<? super E> weigher) {
+        if (choices.isEmpty()) {
+            throw new IllegalArgumentException("No choices");
+        }
+        double[] weights = new double[choices.size()];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = checkWeight(weigher.applyAsDouble(choices.get(i)));
+        }
+        if (sum(weights) <= 0) {
+            throw new IllegalArgumentException("Total weight must be positive");
+        }
+        return weights;
+    }
+
+    private static double checkWeight(double weight) {
+        if (!(weight >= 0) || Double.isInfinite(weight)) {
+            throw new IllegalArgumentException("Illegal weight: " + weight);
+        }
+        return weight;
+    }
+
+    private static double sum(double[] weights) {
+        double sum = 0;
+        for (double w : weights) {
+            sum += w;
+        }
+        return sum;
     }
 
 }
@@ -0,0 +1,307 @@
+package com.example.effectivejava.ch5generic.i28genericlistorarray;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Collector;
+
+/**
+ * 蓄水池抽样（reservoir sampling）实现的Chooser。
+ *
+ * {@link ArrayCollection}中的Chooser都要先把整个集合拷贝到数组或列表中，对于无法全部放进内存的数据流就无能为力了。
+ * 蓄水池抽样只遍历一次数据，始终只保留k个元素，内存占用是O(k)，遍历结束后蓄水池中就是对整个数据流的抽样。
+ *
+ * 1.{@link #uniform(int)}：均匀抽样，使用Algorithm L，根据随机数计算出下一个要替换进蓄水池的元素位置，
+ * 中间的元素只计数，不消耗随机数。
+ * 2.{@link #weighted(int, ToDoubleFunction)}：加权抽样，使用A-ES算法（Efraimidis-Spirakis），
+ * 每个元素生成一个键u<sup>1/w</sup>，保留键最大的k个元素。
+ *
+ * 两个蓄水池可以合并，所以可以通过{@link #toUniform(int)}、{@link #toWeighted(int, ToDoubleFunction)}
+ * 在并行流的各个分区上分别抽样，最后再合并结果。
+ *
+ * 本类不是线程安全的。
+ */
+public abstract class ReservoirChooser<E> implements Consumer<E> {
+    final int capacity;
+    final Object[] reservoir;
+    int filled;
+    long seen;
+
+    ReservoirChooser(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.reservoir = new Object[capacity];
+    }
+
+    public static <E> ReservoirChooser<E> uniform(int capacity) {
+        return new Uniform<>(capacity);
+    }
+
+    public static <E> ReservoirChooser<E> weighted(int capacity, ToDoubleFunction<? super E> weigher) {
+        return new Weighted<>(capacity, Objects.requireNonNull(weigher));
+    }
+
+    /**
+     * 遍历一次src，得到大小为capacity的均匀抽样
+     */
+    public static <E> ReservoirChooser<E> of(Iterable<? extends E> src, int capacity) {
+        ReservoirChooser<E> chooser = uniform(capacity);
+        src.forEach(chooser);
+        return chooser;
+    }
+
+    public static <E> Collector<E, ?, ReservoirChooser<E>> toUniform(int capacity) {
+        return Collector.of(() -> uniform(capacity), ReservoirChooser::accept, ReservoirChooser::merge,
+                Collector.Characteristics.UNORDERED, Collector.Characteristics.IDENTITY_FINISH);
+    }
+
+    public static <E> Collector<E, ?, ReservoirChooser<E>> toWeighted(int capacity, ToDoubleFunction<? super E> weigher) {
+        return Collector.of(() -> weighted(capacity, weigher), ReservoirChooser::accept, ReservoirChooser::merge,
+                Collector.Characteristics.UNORDERED, Collector.Characteristics.IDENTITY_FINISH);
+    }
+
+    /**
+     * 把other中的抽样合并进来，合并后相当于对两个数据流拼接后的抽样
+     *
+     * @return 当前对象
+     */
+    public abstract ReservoirChooser<E> merge(ReservoirChooser<E> other);
+
+    /**
+     * 从蓄水池中均匀地选择一个元素。
+     * 均匀抽样时，结果就是对整个数据流的均匀选择；
+     * 加权抽样时，只有capacity为1才严格按权重选择，否则蓄水池是一个按权重的无放回抽样，重的元素被选中的概率会被低估。
+     */
+    public E choose() {
+        if (filled == 0) {
+            throw new NoSuchElementException("Empty reservoir");
+        }
+        return elementAt(Sampling.nextInt(ThreadLocalRandom.current(), filled));
+    }
+
+    /**
+     * @return 蓄水池中全部元素的拷贝
+     */
+    public List<E> sample() {
+        List<E> result = new ArrayList<>(filled);
+        for (int i = 0; i < filled; i++) {
+            result.add(elementAt(i));
+        }
+        return result;
+    }
+
+    /**
+     * @return 已经遍历过的元素数量
+     */
+    public long seen() {
+        return seen;
+    }
+
+    @SuppressWarnings("unchecked")
+    E elementAt(int i) {
+        return (E) reservoir[i];
+    }
+
+    void checkCompatible(ReservoirChooser<E> other) {
+        if (other.getClass() != getClass() || other.capacity != capacity) {
+            throw new IllegalArgumentException("Incompatible reservoir: " + other);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[capacity=" + capacity + ", seen=" + seen + "]";
+    }
+
+    private static final class Uniform<E> extends ReservoirChooser<E> {
+        /**
+         * Algorithm L中的状态，NaN表示合并过，之后改用Algorithm R
+         */
+        private double w;
+        /**
+         * 下一个进入蓄水池的元素的序号
+         */
+        private long next;
+
+        Uniform(int capacity) {
+            super(capacity);
+        }
+
+        @Override
+        public void accept(E e) {
+            long index = seen++;
+            if (filled < capacity) {
+                reservoir[filled++] = e;
+                if (filled == capacity) {
+                    ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                    w = Math.exp(Math.log(Sampling.uniform(rnd)) / capacity);
+                    next = index + skip(rnd) + 1;
+                }
+                return;
+            }
+            ThreadLocalRandom rnd = ThreadLocalRandom.current();
+            if (Double.isNaN(w)) {
+                // Algorithm R：第index个元素以capacity / (index + 1)的概率替换蓄水池中的一个元素
+                long j = rnd.nextLong(index + 1);
+                if (j < capacity) {
+                    reservoir[(int) j] = e;
+                }
+                return;
+            }
+            if (index == next) {
+                reservoir[Sampling.nextInt(rnd, capacity)] = e;
+                w *= Math.exp(Math.log(Sampling.uniform(rnd)) / capacity);
+                next = index + skip(rnd) + 1;
+            }
+        }
+
+        private long skip(ThreadLocalRandom rnd) {
+            return (long) Math.floor(Math.log(Sampling.uniform(rnd)) / Math.log1p(-w));
+        }
+
+        /**
+         * 合并后的抽样是从两个数据流的并集中无放回地选择min(capacity, a + b)个元素：
+         * 每次以剩余数量的比例决定从哪个蓄水池中取，两个蓄水池各自是均匀抽样，打乱后按顺序取即可
+         */
+        @Override
+        public ReservoirChooser<E> merge(ReservoirChooser<E> other) {
+            checkCompatible(other);
+            if (other.seen == 0) {
+                return this;
+            }
+            ThreadLocalRandom rnd = ThreadLocalRandom.current();
+            Object[] mine = Arrays.copyOf(reservoir, filled);
+            Object[] theirs = Arrays.copyOf(other.reservoir, other.filled);
+            shuffle(rnd, mine);
+            shuffle(rnd, theirs);
+            long a = seen;
+            long b = other.seen;
+            int total = (int) Math.min(capacity, a + b);
+            int i = 0;
+            int j = 0;
+            for (int n = 0; n < total; n++) {
+                if (rnd.nextLong(a + b) < a) {
+                    reservoir[n] = mine[i++];
+                    a--;
+                } else {
+                    reservoir[n] = theirs[j++];
+                    b--;
+                }
+            }
+            filled = total;
+            seen += other.seen;
+            w = Double.NaN;
+            return this;
+        }
+
+        private static void shuffle(ThreadLocalRandom rnd, Object[] a) {
+            for (int i = a.length - 1; i > 0; i--) {
+                int j = Sampling.nextInt(rnd, i + 1);
+                Object tmp = a[i];
+                a[i] = a[j];
+                a[j] = tmp;
+            }
+        }
+    }
+
+    /**
+     * 键取对数log(u) / w，与u<sup>1/w</sup>的大小顺序相同，但不会因为权重很小而下溢为0。
+     * 蓄水池用键的小顶堆组织，堆顶是当前的淘汰门槛。
+     */
+    private static final class Weighted<E> extends ReservoirChooser<E> {
+        private final ToDoubleFunction<? super E> weigher;
+        private final double[] keys;
+
+        Weighted(int capacity, ToDoubleFunction<? super E> weigher) {
+            super(capacity);
+            this.weigher = weigher;
+            this.keys = new double[capacity];
+        }
+
+        @Override
+        public void accept(E e) {
+            seen++;
+            double weight = weigher.applyAsDouble(e);
+            if (!(weight > 0) || Double.isInfinite(weight)) {
+                if (weight == 0) {
+                    return; // 权重为0的元素永远不会被选中
+                }
+                throw new IllegalArgumentException("Illegal weight: " + weight);
+            }
+            offer(Math.log(Sampling.uniform(ThreadLocalRandom.current())) / weight, e);
+        }
+
+        private void offer(double key, Object e) {
+            if (filled < capacity) {
+                int i = filled++;
+                keys[i] = key;
+                reservoir[i] = e;
+                siftUp(i);
+            } else if (key > keys[0]) {
+                keys[0] = key;
+                reservoir[0] = e;
+                siftDown(0);
+            }
+        }
+
+        /**
+         * 键在所有分区之间是可比较的，合并就是保留两边键最大的capacity个元素
+         */
+        @Override
+        public ReservoirChooser<E> merge(ReservoirChooser<E> other) {
+            checkCompatible(other);
+            Weighted<E> that = (Weighted<E>) other;
+            for (int i = 0; i < that.filled; i++) {
+                offer(that.keys[i], that.reservoir[i]);
+            }
+            seen += that.seen;
+            return this;
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (keys[parent] <= keys[i]) {
+                    break;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            for (;;) {
+                int smallest = i;
+                int left = 2 * i + 1;
+                int right = left + 1;
+                if (left < filled && keys[left] < keys[smallest]) {
+                    smallest = left;
+                }
+                if (right < filled && keys[right] < keys[smallest]) {
+                    smallest = right;
+                }
+                if (smallest == i) {
+                    return;
+                }
+                swap(i, smallest);
+                i = smallest;
+            }
+        }
+
+        private void swap(int i, int j) {
+            double key = keys[i];
+            keys[i] = keys[j];
+            keys[j] = key;
+            Object e = reservoir[i];
+            reservoir[i] = reservoir[j];
+            reservoir[j] = e;
+        }
+    }
+}
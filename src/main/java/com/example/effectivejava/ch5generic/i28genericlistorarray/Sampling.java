@@ -0,0 +1,100 @@
+package com.example.effectivejava.ch5generic.i28genericlistorarray;
+
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntFunction;
+
+/**
+ * Chooser批量选择的公共实现。
+ *
+ * 批量选择时只获取一次ThreadLocalRandom，结果写入调用方提供的数组，循环中不分配任何对象。
+ */
+final class Sampling {
+    private Sampling() {}
+
+    /**
+     * 返回[0, bound)中均匀分布的随机数。
+     *
+     * 使用Lemire的乘法移位方法：32位随机数乘以bound后取高32位就落在[0, bound)中，
+     * 只有低32位落在很小的偏差区间时才需要重新生成，绝大多数情况下没有除法和分支。
+     */
+    static int nextInt(ThreadLocalRandom rnd, int bound) {
+        long m = (rnd.nextInt() & 0xFFFFFFFFL) * bound;
+        long low = m & 0xFFFFFFFFL;
+        if (low < bound) {
+            long threshold = (0x100000000L - bound) % bound;
+            while (low < threshold) {
+                m = (rnd.nextInt() & 0xFFFFFFFFL) * bound;
+                low = m & 0xFFFFFFFFL;
+            }
+        }
+        return (int) (m >>> 32);
+    }
+
+    /**
+     * 有放回地选择n个元素写入dst[0, n)
+     */
+    static <E> void withReplacement(IntFunction<? extends E> source, int size, int n, E[] dst) {
+        checkArguments(size, n, dst);
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        for (int i = 0; i < n; i++) {
+            dst[i] = source.apply(nextInt(rnd, size));
+        }
+    }
+
+    /**
+     * 无放回地选择n个元素写入dst[0, n)，结果的顺序也是随机的。
+     *
+     * 使用蓄水池抽样的Algorithm L：先用前n个元素填满蓄水池（也就是dst），
+     * 之后根据随机数直接计算下一个进入蓄水池的元素的位置，跳过中间的元素，
+     * 期望的时间复杂度是O(n(1 + log(size / n)))，不需要访问全部元素，也不需要额外的空间记录已经选中的下标。
+     * 蓄水池中元素的顺序不是随机的，最后再原地打乱一次。
+     */
+    static <E> void withoutReplacement(IntFunction<? extends E> source, int size, int n, E[] dst) {
+        checkArguments(size, n, dst);
+        if (n > size) {
+            throw new IllegalArgumentException("Cannot choose " + n + " distinct elements from " + size);
+        }
+        if (n == 0) {
+            return;
+        }
+        for (int i = 0; i < n; i++) {
+            dst[i] = source.apply(i);
+        }
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        double w = Math.exp(Math.log(uniform(rnd)) / n);
+        long i = n - 1;
+        for (;;) {
+            i += (long) Math.floor(Math.log(uniform(rnd)) / Math.log1p(-w)) + 1;
+            if (i >= size) {
+                break;
+            }
+            dst[nextInt(rnd, n)] = source.apply((int) i);
+            w *= Math.exp(Math.log(uniform(rnd)) / n);
+        }
+        shuffle(rnd, n, dst);
+    }
+
+    /**
+     * @return (0, 1]中均匀分布的随机数，避免对0取对数
+     */
+    static double uniform(ThreadLocalRandom rnd) {
+        return 1 - rnd.nextDouble();
+    }
+
+    private static <E> void shuffle(ThreadLocalRandom rnd, int n, E[] dst) {
+        for (int i = n - 1; i > 0; i--) {
+            int j = nextInt(rnd, i + 1);
+            E tmp = dst[i];
+            dst[i] = dst[j];
+            dst[j] = tmp;
+        }
+    }
+
+    private static void checkArguments(int size, int n, Object[] dst) {
+        Objects.checkFromIndexSize(0, n, dst.length);
+        if (size == 0 && n > 0) {
+            throw new IllegalArgumentException("No choices");
+        }
+    }
+}
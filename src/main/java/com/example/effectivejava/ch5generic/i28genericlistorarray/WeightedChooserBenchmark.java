@@ -0,0 +1,63 @@
+package com.example.effectivejava.ch5generic.i28genericlistorarray;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import com.example.effectivejava.ch5generic.i28genericlistorarray.ArrayCollection.WeightedChooserAliasImpl;
+import com.example.effectivejava.ch5generic.i28genericlistorarray.ArrayCollection.WeightedChooserFenwickImpl;
+import com.example.effectivejava.ch5generic.i28genericlistorarray.ArrayCollection.WeightedChooserLinearImpl;
+
+/**
+ * 对比几种按权重选择的实现在不同元素数量下的选择速度，并统计第一个元素被选中的频率，检查分布是否正确。
+ *
+ * 这只是粗略的对比，需要准确的数据应该使用JMH。
+ *
+ * 用法：WeightedChooserBenchmark [samples]
+ */
+public class WeightedChooserBenchmark {
+    private static final int WARMUP_ROUNDS = 3;
+
+    public static void main(String[] args) {
+        int samples = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        for (int n : new int[] { 10, 1_000, 100_000 }) {
+            List<Integer> backends = new ArrayList<>();
+            Random rnd = new Random(42);
+            double[] weights = new double[n];
+            double total = 0;
+            for (int i = 0; i < n; i++) {
+                backends.add(i);
+                weights[i] = 1 + rnd.nextInt(100);
+                total += weights[i];
+            }
+            System.out.printf("n=%,d, expected frequency of element 0: %.5f%n", n, weights[0] / total);
+
+            // 线性扫描在元素很多时非常慢，按元素数量减少采样次数
+            run("linear", Math.max(10_000, samples / Math.max(1, n / 100)), () -> new WeightedChooserLinearImpl<>(backends, i -> weights[i])::choose);
+            run("alias", samples, () -> new WeightedChooserAliasImpl<>(backends, i -> weights[i])::choose);
+            run("fenwick", samples, () -> new WeightedChooserFenwickImpl<>(backends, i -> weights[i])::choose);
+        }
+    }
+
+    private static void run(String name, int samples, Supplier<Supplier<Integer>> factory) {
+        long start = System.nanoTime();
+        Supplier<Integer> chooser = factory.get();
+        long setup = System.nanoTime() - start;
+
+        long elapsed = 0;
+        int hits = 0;
+        for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+            hits = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < samples; i++) {
+                if (chooser.get() == 0) {
+                    hits++;
+                }
+            }
+            elapsed = System.nanoTime() - start;
+        }
+        System.out.printf("  %-8s setup %,d us, %.1f ns/choice, frequency of element 0: %.5f%n",
+                name, setup / 1_000, (double) elapsed / samples, (double) hits / samples);
+    }
+}
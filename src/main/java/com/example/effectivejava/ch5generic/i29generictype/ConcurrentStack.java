@@ -0,0 +1,121 @@
+package com.example.effectivejava.ch5generic.i29generictype;
+
+import java.util.EmptyStackException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.example.effectivejava.ch4classandinterface.i21interface.Collection;
+
+/**
+ * 线程安全的无锁栈，与{@link Stack}提供相同的API。
+ *
+ * 基本实现是Treiber栈：栈由单向链表表示，压入和弹出都只是用CAS替换头节点，CAS失败就重试。
+ * 因为节点一旦创建就不再修改，不需要加锁也能保证读到一致的数据。
+ *
+ * 竞争激烈时，所有线程都在CAS同一个头节点，大量的CAS会失败重试。
+ * 这时可以加上消除（elimination）：一次压入和一次弹出正好相互抵消，它们不需要访问栈，直接交换元素就可以了。
+ * CAS头节点失败后，线程随机选择消除数组中的一个槽位：
+ * 压入线程把节点放进空槽位，等待一小段时间，如果被弹出线程取走，压入就完成了，否则撤回节点再去CAS头节点；
+ * 弹出线程看到槽位中有节点，就用CAS把它取走。
+ *
+ * 性能对比见{@link ConcurrentStackBenchmark}。
+ */
+public class ConcurrentStack<E> {
+    private static final int ELIMINATION_SIZE = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+    private static final int ELIMINATION_SPINS = 64;
+
+    private final AtomicReference<Node<E>> head = new AtomicReference<>();
+    private final AtomicReferenceArray<Node<E>> elimination = new AtomicReferenceArray<>(ELIMINATION_SIZE);
+
+    private static final class Node<E> {
+        final E item;
+        Node<E> next;
+
+        Node(E item) {
+            this.item = item;
+        }
+    }
+
+    public void push(E e) {
+        Node<E> node = new Node<>(e);
+        for (;;) {
+            Node<E> h = head.get();
+            node.next = h;
+            if (head.compareAndSet(h, node) || tryEliminatePush(node)) {
+                return;
+            }
+        }
+    }
+
+    public E pop() {
+        for (;;) {
+            Node<E> h = head.get();
+            if (h == null) {
+                throw new EmptyStackException();
+            }
+            if (head.compareAndSet(h, h.next)) {
+                return h.item;
+            }
+            Node<E> eliminated = tryEliminatePop();
+            if (eliminated != null) {
+                return eliminated.item;
+            }
+        }
+    }
+
+    /**
+     * 每个节点只会放入一次，所以撤回时的CAS失败就说明节点已经被弹出线程取走了
+     */
+    private boolean tryEliminatePush(Node<E> node) {
+        int slot = ThreadLocalRandom.current().nextInt(ELIMINATION_SIZE);
+        if (!elimination.compareAndSet(slot, null, node)) {
+            return false;
+        }
+        for (int i = 0; i < ELIMINATION_SPINS; i++) {
+            if (elimination.get(slot) != node) {
+                return true;
+            }
+            Thread.onSpinWait();
+        }
+        return !elimination.compareAndSet(slot, node, null);
+    }
+
+    private Node<E> tryEliminatePop() {
+        int slot = ThreadLocalRandom.current().nextInt(ELIMINATION_SIZE);
+        Node<E> node = elimination.get(slot);
+        if (node != null && elimination.compareAndSet(slot, node, null)) {
+            return node;
+        }
+        return null;
+    }
+
+    public void pushAll(Iterable<? extends E> src) {
+        for (E e : src) {
+            push(e);
+        }
+    }
+
+    /**
+     * 并发环境下isEmpty和pop之间栈可能被其他线程清空，所以不能像Stack那样先判断再弹出，
+     * 而是直接CAS头节点，读到空栈时结束
+     */
+    public void popAll(Collection<? super E> dst) {
+        for (;;) {
+            Node<E> h = head.get();
+            if (h == null) {
+                return;
+            }
+            if (head.compareAndSet(h, h.next)) {
+                dst.add(h.item);
+            }
+        }
+    }
+
+    /**
+     * 并发环境下返回的结果只是一个瞬时的状态
+     */
+    public boolean isEmpty() {
+        return head.get() == null;
+    }
+}
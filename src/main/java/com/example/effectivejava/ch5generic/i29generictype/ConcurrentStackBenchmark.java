@@ -0,0 +1,94 @@
+package com.example.effectivejava.ch5generic.i29generictype;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * 对比{@link ConcurrentStack}与用synchronized包装的{@link Stack}在1到N个线程下的吞吐量。
+ *
+ * 每个线程循环执行压入再弹出，每个线程弹出前自己已经压入了一个元素，所以不会遇到空栈。
+ * 吞吐量取决于机器的核数，线程数超过核数后，主要测量的就是调度的开销了。
+ * 这只是粗略的对比，需要准确的数据应该使用JMH。
+ *
+ * 用法：ConcurrentStackBenchmark [maxThreads] [opsPerThread]
+ */
+public class ConcurrentStackBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int opsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+
+        // 预热
+        run(maxThreads, opsPerThread, new LockFree());
+        run(maxThreads, opsPerThread, new Synchronized());
+
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            double lockFree = run(threads, opsPerThread, new LockFree());
+            double synced = run(threads, opsPerThread, new Synchronized());
+            System.out.printf("%3d threads: ConcurrentStack %,.0f ops/ms, synchronized Stack %,.0f ops/ms%n",
+                    threads, lockFree, synced);
+        }
+    }
+
+    private interface StackOps {
+        void push(Integer e);
+
+        Integer pop();
+    }
+
+    private static final class LockFree implements StackOps {
+        private final ConcurrentStack<Integer> stack = new ConcurrentStack<>();
+
+        @Override
+        public void push(Integer e) {
+            stack.push(e);
+        }
+
+        @Override
+        public Integer pop() {
+            return stack.pop();
+        }
+    }
+
+    private static final class Synchronized implements StackOps {
+        private final Stack<Integer> stack = new Stack<>();
+
+        @Override
+        public synchronized void push(Integer e) {
+            stack.push(e);
+        }
+
+        @Override
+        public synchronized Integer pop() {
+            return stack.pop();
+        }
+    }
+
+    /**
+     * @return 每毫秒完成的操作数（一次压入或一次弹出算一次操作）
+     */
+    private static double run(int threads, int opsPerThread, StackOps stack) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            Integer item = t;
+            new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < opsPerThread / 2; i++) {
+                        stack.push(item);
+                        stack.pop();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+        return (double) threads * (opsPerThread / 2 * 2) / (elapsed / 1_000_000.0);
+    }
+}
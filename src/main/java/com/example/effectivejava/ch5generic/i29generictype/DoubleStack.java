@@ -0,0 +1,58 @@
+package com.example.effectivejava.ch5generic.i29generictype;
+
+import java.util.Arrays;
+import java.util.EmptyStackException;
+import java.util.function.DoubleConsumer;
+
+/**
+ * {@link Stack}针对double的特化版本，直接使用double[]保存元素，避免装箱，说明见{@link IntStack}。
+ */
+public class DoubleStack {
+    private double[] elements;
+    private int size = 0;
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+
+    public DoubleStack() {
+        elements = new double[DEFAULT_INITIAL_CAPACITY];
+    }
+
+    public void push(double e) {
+        ensureCapacity(size + 1);
+        elements[size++] = e;
+    }
+
+    /**
+     * 基本类型没有过期引用的问题，不需要清空弹出的元素
+     */
+    public double pop() {
+        if (size == 0) {
+            throw new EmptyStackException();
+        }
+        return elements[--size];
+    }
+
+    /**
+     * 一次性扩容后批量拷贝，按数组顺序压入
+     */
+    public void pushAll(double... src) {
+        ensureCapacity(size + src.length);
+        System.arraycopy(src, 0, elements, size, src.length);
+        size += src.length;
+    }
+
+    public void popAll(DoubleConsumer dst) {
+        while (!isEmpty()) {
+            dst.accept(pop());
+        }
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private void ensureCapacity(int minCapacity) {
+        if (elements.length < minCapacity) {
+            elements = Arrays.copyOf(elements, Math.max(2 * size + 1, minCapacity));
+        }
+    }
+}
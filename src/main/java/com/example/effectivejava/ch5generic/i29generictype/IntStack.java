@@ -0,0 +1,67 @@
+package com.example.effectivejava.ch5generic.i29generictype;
+
+import java.util.Arrays;
+import java.util.EmptyStackException;
+import java.util.function.IntConsumer;
+
+/**
+ * {@link Stack}针对int的特化版本。
+ *
+ * 泛型只能使用引用类型，Stack&lt;Integer&gt;中的每个元素都要装箱成Integer对象（-128到127之外的值每次都会创建新对象），
+ * 数组中保存的是对象引用，访问元素还要多一次间接寻址。
+ * 大量压入基本类型数据时，装箱带来的对象分配和GC开销就非常可观了（详见i61：基本类型优先于装箱基本类型）。
+ *
+ * 这种情况下可以像IntStream、LongStream、DoubleStream那样，为常用的基本类型提供特化的实现，
+ * 直接使用int[]保存元素。{@link LongStack}、{@link DoubleStack}与本类的代码结构完全相同，只替换了元素类型。
+ *
+ * 与{@link Stack}的性能对比见{@link PrimitiveStackBenchmark}。
+ */
+public class IntStack {
+    private int[] elements;
+    private int size = 0;
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+
+    public IntStack() {
+        elements = new int[DEFAULT_INITIAL_CAPACITY];
+    }
+
+    public void push(int e) {
+        ensureCapacity(size + 1);
+        elements[size++] = e;
+    }
+
+    /**
+     * 基本类型没有过期引用的问题，不需要清空弹出的元素
+     */
+    public int pop() {
+        if (size == 0) {
+            throw new EmptyStackException();
+        }
+        return elements[--size];
+    }
+
+    /**
+     * 一次性扩容后批量拷贝，按数组顺序压入
+     */
+    public void pushAll(int... src) {
+        ensureCapacity(size + src.length);
+        System.arraycopy(src, 0, elements, size, src.length);
+        size += src.length;
+    }
+
+    public void popAll(IntConsumer dst) {
+        while (!isEmpty()) {
+            dst.accept(pop());
+        }
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private void ensureCapacity(int minCapacity) {
+        if (elements.length < minCapacity) {
+            elements = Arrays.copyOf(elements, Math.max(2 * size + 1, minCapacity));
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.effectivejava.ch5generic.i29generictype;
+
+import java.util.Arrays;
+import java.util.EmptyStackException;
+import java.util.function.LongConsumer;
+
+/**
+ * {@link Stack}针对long的特化版本，直接使用long[]保存元素，避免装箱，说明见{@link IntStack}。
+ */
+public class LongStack {
+    private long[] elements;
+    private int size = 0;
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+
+    public LongStack() {
+        elements = new long[DEFAULT_INITIAL_CAPACITY];
+    }
+
+    public void push(long e) {
+        ensureCapacity(size + 1);
+        elements[size++] = e;
+    }
+
+    /**
+     * 基本类型没有过期引用的问题，不需要清空弹出的元素
+     */
+    public long pop() {
+        if (size == 0) {
+            throw new EmptyStackException();
+        }
+        return elements[--size];
+    }
+
+    /**
+     * 一次性扩容后批量拷贝，按数组顺序压入
+     */
+    public void pushAll(long... src) {
+        ensureCapacity(size + src.length);
+        System.arraycopy(src, 0, elements, size, src.length);
+        size += src.length;
+    }
+
+    public void popAll(LongConsumer dst) {
+        while (!isEmpty()) {
+            dst.accept(pop());
+        }
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private void ensureCapacity(int minCapacity) {
+        if (elements.length < minCapacity) {
+            elements = Arrays.copyOf(elements, Math.max(2 * size + 1, minCapacity));
+        }
+    }
+}
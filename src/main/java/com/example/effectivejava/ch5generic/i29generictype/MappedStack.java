@@ -0,0 +1,394 @@
+package com.example.effectivejava.ch5generic.i29generictype;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EmptyStackException;
+import java.util.List;
+import java.util.Objects;
+
+import com.example.effectivejava.ch4classandinterface.i21interface.Collection;
+
+/**
+ * 保存在堆外内存映射文件中的栈，元素在压入时序列化，弹出时反序列化。
+ *
+ * {@link Stack}的元素都在堆上，容量受限于堆大小，扩容时还要拷贝整个数组。本类的数据保存在一组固定大小的段文件中：
+ * 1.数据不在堆上，不受堆大小限制，也不会增加GC的负担。
+ * 2.当前段写满后追加一个新的段文件，已有的数据不需要拷贝。
+ * 3.进程崩溃后重新打开目录，可以恢复出崩溃前的栈。
+ *
+ * 段文件格式：前8字节是段头，记录数据的结束位置（limit），之后依次是每个元素的[序列化数据][数据长度int]。
+ * 长度放在数据之后，所以弹出时可以从limit向前读出长度，再读出数据。
+ *
+ * {@link Codec}每压入、弹出一个元素都要创建一个字节数组。元素序列化后长度固定时（比如long），
+ * 可以改用{@link FixedWidthCodec}，直接在映射的缓冲区中读写，不创建中间的数组，也不需要保存长度，
+ * 每个元素只占用[序列化数据]。两种格式不兼容，同一个目录必须始终使用同一个编解码器打开。
+ *
+ * push和pop都可能需要映射段文件，映射失败时抛出IOException。
+ *
+ * 写入时先写数据，最后再更新段头中的limit，limit的更新就是这次写入的提交点。
+ * 进程在中途崩溃时，已写入的页仍在操作系统的页缓存中，但limit没有更新，这次不完整的写入不可见。
+ * 如果还要应对操作系统崩溃或断电，需要调用{@link #force()}把数据刷到磁盘。
+ *
+ * 本类不是线程安全的。
+ */
+public class MappedStack<E> implements Closeable {
+    private static final int HEADER_SIZE = Long.BYTES;
+    private static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    private final Path directory;
+    private final int segmentSize;
+    /**
+     * codec和fixed只有一个不为null
+     */
+    private final Codec<E> codec;
+    private final FixedWidthCodec<E> fixed;
+    private final List<Segment> segments = new ArrayList<>();
+    /**
+     * 栈顶所在的段，它之后的段都是空的，留作下次扩展时复用
+     */
+    private int top;
+
+    /**
+     * 元素与字节数组之间的转换
+     */
+    public interface Codec<E> {
+        byte[] encode(E e);
+
+        E decode(byte[] bytes);
+
+        static Codec<String> utf8() {
+            return new Codec<>() {
+                @Override
+                public byte[] encode(String e) {
+                    return e.getBytes(StandardCharsets.UTF_8);
+                }
+
+                @Override
+                public String decode(byte[] bytes) {
+                    return new String(bytes, StandardCharsets.UTF_8);
+                }
+            };
+        }
+    }
+
+    /**
+     * 序列化后长度固定的元素，直接在映射的缓冲区中读写。
+     * 只能使用绝对位置的get、put方法访问[offset, offset + width())之间的字节，不能修改缓冲区的position和limit。
+     */
+    public interface FixedWidthCodec<E> {
+        int width();
+
+        void write(ByteBuffer buffer, int offset, E e);
+
+        E read(ByteBuffer buffer, int offset);
+
+        static FixedWidthCodec<Long> longs() {
+            return new FixedWidthCodec<>() {
+                @Override
+                public int width() {
+                    return Long.BYTES;
+                }
+
+                @Override
+                public void write(ByteBuffer buffer, int offset, Long e) {
+                    buffer.putLong(offset, e);
+                }
+
+                @Override
+                public Long read(ByteBuffer buffer, int offset) {
+                    return buffer.getLong(offset);
+                }
+            };
+        }
+
+        static FixedWidthCodec<Integer> ints() {
+            return new FixedWidthCodec<>() {
+                @Override
+                public int width() {
+                    return Integer.BYTES;
+                }
+
+                @Override
+                public void write(ByteBuffer buffer, int offset, Integer e) {
+                    buffer.putInt(offset, e);
+                }
+
+                @Override
+                public Integer read(ByteBuffer buffer, int offset) {
+                    return buffer.getInt(offset);
+                }
+            };
+        }
+    }
+
+    private MappedStack(Path directory, int segmentSize, Codec<E> codec, FixedWidthCodec<E> fixed) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.codec = codec;
+        this.fixed = fixed;
+    }
+
+    /**
+     * 打开目录中已有的栈，目录为空时创建一个新的栈
+     */
+    public static <E> MappedStack<E> open(Path directory, Codec<E> codec) throws IOException {
+        return open(directory, DEFAULT_SEGMENT_SIZE, codec);
+    }
+
+    public static <E> MappedStack<E> open(Path directory, int segmentSize, Codec<E> codec) throws IOException {
+        if (segmentSize <= HEADER_SIZE + Integer.BYTES) {
+            throw new IllegalArgumentException("Segment size too small: " + segmentSize);
+        }
+        return open(new MappedStack<>(directory, segmentSize, Objects.requireNonNull(codec), null));
+    }
+
+    public static <E> MappedStack<E> open(Path directory, FixedWidthCodec<E> codec) throws IOException {
+        return open(directory, DEFAULT_SEGMENT_SIZE, codec);
+    }
+
+    public static <E> MappedStack<E> open(Path directory, int segmentSize, FixedWidthCodec<E> codec)
+            throws IOException {
+        int width = codec.width();
+        if (width <= 0 || segmentSize - HEADER_SIZE < width) {
+            throw new IllegalArgumentException("Illegal width " + width + " for segment size " + segmentSize);
+        }
+        return open(new MappedStack<>(directory, segmentSize, null, codec));
+    }
+
+    private static <E> MappedStack<E> open(MappedStack<E> stack) throws IOException {
+        Files.createDirectories(stack.directory);
+        stack.recover();
+        return stack;
+    }
+
+    /**
+     * 段文件按编号连续排列，栈顶在最后一个非空的段中
+     */
+    private void recover() throws IOException {
+        for (int i = 0; Files.exists(segmentPath(i)); i++) {
+            Segment segment = new Segment(segmentPath(i));
+            if (segment.readLimit() > HEADER_SIZE) {
+                top = i;
+            }
+            segments.add(segment);
+        }
+        if (segments.isEmpty()) {
+            segments.add(new Segment(segmentPath(0)));
+        }
+        segments.get(top).map();
+    }
+
+    private Path segmentPath(int index) {
+        return directory.resolve(String.format("%s%08d", SEGMENT_PREFIX, index));
+    }
+
+    public void push(E e) throws IOException {
+        if (fixed != null) {
+            int width = fixed.width();
+            Segment segment = segments.get(top);
+            if (segment.limit + width > segmentSize) {
+                segment = nextSegment();
+            }
+            fixed.write(segment.buffer, segment.limit, e);
+            segment.commit(segment.limit + width);
+            return;
+        }
+        byte[] bytes = codec.encode(e);
+        int required = bytes.length + Integer.BYTES;
+        if (required > segmentSize - HEADER_SIZE) {
+            throw new IllegalArgumentException("Element too large: " + bytes.length + " bytes");
+        }
+        Segment segment = segments.get(top);
+        if (segment.limit + required > segmentSize) {
+            segment = nextSegment();
+        }
+        ByteBuffer buffer = segment.buffer.duplicate();
+        buffer.position(segment.limit);
+        buffer.put(bytes).putInt(bytes.length);
+        segment.commit(segment.limit + required);
+    }
+
+    private Segment nextSegment() throws IOException {
+        if (++top == segments.size()) {
+            segments.add(new Segment(segmentPath(top)));
+        }
+        Segment segment = segments.get(top);
+        segment.map();
+        return segment;
+    }
+
+    /**
+     * 当前段已空时需要重新映射上一个段，映射失败时抛出IOException，栈不变
+     */
+    public E pop() throws IOException {
+        Segment segment = segments.get(top);
+        if (segment.limit == HEADER_SIZE) {
+            if (top == 0) {
+                throw new EmptyStackException();
+            }
+            Segment previous = segments.get(top - 1);
+            previous.map();
+            // 当前段已空，回到上一个段，再上面的空段不再需要，释放对它的引用
+            if (top + 1 < segments.size()) {
+                segments.get(top + 1).release();
+            }
+            top--;
+            segment = previous;
+        }
+        if (fixed != null) {
+            int start = segment.limit - fixed.width();
+            E e = fixed.read(segment.buffer, start);
+            segment.commit(start);
+            return e;
+        }
+        ByteBuffer buffer = segment.buffer.duplicate();
+        int length = buffer.getInt(segment.limit - Integer.BYTES);
+        int start = segment.limit - Integer.BYTES - length;
+        byte[] bytes = new byte[length];
+        buffer.position(start);
+        buffer.get(bytes);
+        segment.commit(start);
+        return codec.decode(bytes);
+    }
+
+    public void pushAll(Iterable<? extends E> src) throws IOException {
+        for (E e : src) {
+            push(e);
+        }
+    }
+
+    public void popAll(Collection<? super E> dst) throws IOException {
+        while (!isEmpty()) {
+            dst.add(pop());
+        }
+    }
+
+    public boolean isEmpty() {
+        return top == 0 && segments.get(0).limit == HEADER_SIZE;
+    }
+
+    /**
+     * 把已映射段的修改刷到磁盘
+     */
+    public void force() {
+        for (Segment segment : segments) {
+            if (segment.buffer != null) {
+                segment.buffer.force();
+            }
+        }
+    }
+
+    /**
+     * 关闭时删除栈顶之后的空段文件
+     */
+    @Override
+    public void close() throws IOException {
+        force();
+        for (int i = segments.size() - 1; i > top; i--) {
+            Segment segment = segments.remove(i);
+            segment.release();
+            Files.deleteIfExists(segment.path);
+        }
+        for (Segment segment : segments) {
+            segment.release();
+        }
+    }
+
+    private final class Segment {
+        private final Path path;
+        private MappedByteBuffer buffer;
+        private int limit = HEADER_SIZE;
+
+        Segment(Path path) {
+            this.path = path;
+        }
+
+        int readLimit() throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                channel.read(header, 0);
+                header.flip();
+                long stored = header.remaining() == HEADER_SIZE ? header.getLong() : 0;
+                // 新建的段文件中段头为0
+                if (stored == 0) {
+                    stored = HEADER_SIZE;
+                }
+                if (stored < HEADER_SIZE || stored > segmentSize) {
+                    throw new IOException("Corrupted segment header in " + path + ": " + stored);
+                }
+                limit = (int) stored;
+                return limit;
+            }
+        }
+
+        /**
+         * 映射建立后关闭通道也不影响映射，这样不需要为每个段保持一个打开的文件
+         */
+        void map() throws IOException {
+            if (buffer != null) {
+                return;
+            }
+            try (FileChannel channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            }
+            long stored = buffer.getLong(0);
+            limit = stored == 0 ? HEADER_SIZE : (int) stored;
+        }
+
+        void commit(int newLimit) {
+            limit = newLimit;
+            buffer.putLong(0, newLimit);
+        }
+
+        /**
+         * Java没有提供主动解除映射的公开API，去掉引用后由GC回收时解除映射
+         */
+        void release() {
+            buffer = null;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path dir = Files.createTempDirectory("mapped-stack");
+        try (MappedStack<String> stack = MappedStack.open(dir, 1024, Codec.utf8())) {
+            for (int i = 0; i < 200; i++) {
+                stack.push("element-" + i);
+            }
+        }
+
+        // 重新打开后恢复之前的栈
+        try (MappedStack<String> stack = MappedStack.open(dir, 1024, Codec.utf8())) {
+            int count = 0;
+            while (!stack.isEmpty()) {
+                String e = stack.pop();
+                if (count++ < 3) {
+                    System.out.println(e);
+                }
+            }
+            System.out.println(count + " elements recovered");
+        }
+
+        // 定长的元素直接读写映射的缓冲区
+        Path longs = Files.createTempDirectory("mapped-stack-longs");
+        try (MappedStack<Long> stack = MappedStack.open(longs, 1024, FixedWidthCodec.longs())) {
+            for (long i = 0; i < 1000; i++) {
+                stack.push(i);
+            }
+            long sum = 0;
+            while (!stack.isEmpty()) {
+                sum += stack.pop();
+            }
+            System.out.println("sum of longs: " + sum);
+        }
+    }
+}
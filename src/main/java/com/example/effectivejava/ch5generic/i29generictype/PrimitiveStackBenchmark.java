@@ -0,0 +1,71 @@
+package com.example.effectivejava.ch5generic.i29generictype;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * 对比{@link IntStack}和装箱的Stack&lt;Integer&gt;的耗时与内存分配量。
+ *
+ * 每种实现先预热若干轮，再取最后一轮的结果。分配量通过HotSpot的ThreadMXBean统计当前线程分配的字节数。
+ * 这只是粗略的对比，需要准确的数据应该使用JMH。
+ *
+ * 用法：PrimitiveStackBenchmark [n]
+ */
+public class PrimitiveStackBenchmark {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        run("IntStack", n, PrimitiveStackBenchmark::primitive);
+        run("Stack<Integer>", n, PrimitiveStackBenchmark::boxed);
+    }
+
+    private static void run(String name, int n, Workload workload) {
+        long checksum = 0;
+        for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            checksum += workload.run(n);
+            long elapsed = System.nanoTime() - start;
+            long allocated = allocatedBytes() - allocatedBefore;
+            if (round == WARMUP_ROUNDS) {
+                System.out.printf("%-15s %,d ms, %,d bytes allocated (checksum %d)%n",
+                        name, elapsed / 1_000_000, allocated, checksum);
+            }
+        }
+    }
+
+    private static long allocatedBytes() {
+        return THREAD_MX_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static long primitive(int n) {
+        IntStack stack = new IntStack();
+        for (int i = 0; i < n; i++) {
+            stack.push(i);
+        }
+        long sum = 0;
+        while (!stack.isEmpty()) {
+            sum += stack.pop();
+        }
+        return sum;
+    }
+
+    private static long boxed(int n) {
+        Stack<Integer> stack = new Stack<>();
+        for (int i = 0; i < n; i++) {
+            stack.push(i);
+        }
+        long sum = 0;
+        while (!stack.isEmpty()) {
+            sum += stack.pop();
+        }
+        return sum;
+    }
+
+    @FunctionalInterface
+    private interface Workload {
+        long run(int n);
+    }
+}
@@ -2,7 +2,9 @@ package com.example.effectivejava.ch5generic.i29generictype;
 
 import java.util.Arrays;
 import java.util.EmptyStackException;
+import java.util.Objects;
 
+import com.example.effectivejava.ch2instantiate.i7obsoletereference.GrowthPolicy;
 import com.example.effectivejava.ch4classandinterface.i21interface.Collection;
 import com.example.effectivejava.ch5generic.i28genericlistorarray.ArrayCollection.ChooserObjectArrayImpl;
 
@@ -25,11 +27,23 @@ import com.example.effectivejava.ch5generic.i28genericlistorarray.ArrayCollectio
 public class Stack<E> {
     private E[] elements;
     private int size = 0;
+    private final GrowthPolicy policy;
     private static final int DEFAULT_INITIAL_CAPACITY = 16;
 
-    @SuppressWarnings("unchecked")
+    /**
+     * 与原来的行为相同：容量翻倍，从不缩容。需要缩容时使用{@link #Stack(GrowthPolicy)}
+     */
     public Stack() {
+        this(GrowthPolicy.growOnly(GrowthPolicy.doubling()));
+    }
+
+    /**
+     * @param policy 扩容和缩容策略，见{@link GrowthPolicy}
+     */
+    @SuppressWarnings("unchecked")
+    public Stack(GrowthPolicy policy) {
         elements = (E[]) new Object[DEFAULT_INITIAL_CAPACITY];
+        this.policy = Objects.requireNonNull(policy);
     }
 
     public void push(E e) {
@@ -43,6 +57,7 @@ public class Stack<E> {
         }
         E result = elements[--size];
         elements[size] = null; // eliminate obsolete reference
+        shrinkIfNeeded();
         return result;
     }
 
@@ -68,9 +83,31 @@ public class Stack<E> {
         return size == 0;
     }
 
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return elements.length;
+    }
+
+    /**
+     * 数组中空闲的槽位数，用来观察栈实际占用的内存
+     */
+    public int wastedSlots() {
+        return elements.length - size;
+    }
+
     private void ensureCapacity() {
         if (elements.length == size) {
-            elements = Arrays.copyOf(elements, 2 * size + 1);
+            elements = Arrays.copyOf(elements, Math.max(policy.grow(elements.length), elements.length + 1));
+        }
+    }
+
+    private void shrinkIfNeeded() {
+        int newCapacity = policy.shrink(size, elements.length, DEFAULT_INITIAL_CAPACITY);
+        if (newCapacity < elements.length) {
+            elements = Arrays.copyOf(elements, Math.max(newCapacity, size));
         }
     }
 
@@ -82,5 +119,16 @@ public class Stack<E> {
         while (!stack.isEmpty()) {
             System.out.println(stack.pop().toUpperCase());
         }
+
+        // 突发压入大量元素后全部弹出，容量会随之缩小
+        Stack<Integer> burst = new Stack<>(GrowthPolicy.oneAndHalf());
+        for (int i = 0; i < 1_000_000; i++) {
+            burst.push(i);
+        }
+        System.out.println("capacity after burst: " + burst.capacity());
+        while (!burst.isEmpty()) {
+            burst.pop();
+        }
+        System.out.println("capacity after drain: " + burst.capacity() + ", wasted: " + burst.wastedSlots());
     }
 }